@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import de.serviceflow.codegenj.CodegenJ;
+import de.serviceflow.codegenj.TemplateCache;
+
+/**
+ * Generate the Java and JNI sources of D-Bus introspection files in the Maven
+ * process. The manifest in each destination directory records the XML file,
+ * options and templates of the last run, an unchanged XML file is skipped
+ * without being parsed. The generated Java sources are added to the compile
+ * source roots.
+ */
+@Mojo(name = "generate", defaultPhase = LifecyclePhase.GENERATE_SOURCES, threadSafe = false)
+public class GenerateMojo extends AbstractMojo {
+
+	/**
+	 * Directory of the XML files, used if no xmlFiles are given.
+	 */
+	@Parameter(defaultValue = "${project.basedir}/src/main/dbus")
+	private File sourceDirectory;
+
+	/**
+	 * XML files or directories of XML files.
+	 */
+	@Parameter
+	private List<File> xmlFiles;
+
+	/**
+	 * Destination, with more than one XML file each one generates into a sub
+	 * directory named after it.
+	 */
+	@Parameter(defaultValue = "${project.build.directory}/generated-sources/codegenj")
+	private File outputDirectory;
+
+	@Parameter(required = true)
+	private String busname;
+
+	@Parameter(required = true)
+	private String interfacePrefix;
+
+	@Parameter(required = true)
+	private String library;
+
+	/**
+	 * Directories searched for templates before the built-in ones.
+	 */
+	@Parameter
+	private List<File> templateDirectories;
+
+	/**
+	 * Regenerate all files, even if the manifest shows them up to date.
+	 */
+	@Parameter(property = "codegenj.force", defaultValue = "false")
+	private boolean force;
+
+	/**
+	 * Render interfaces and XML files concurrently.
+	 */
+	@Parameter(property = "codegenj.parallel", defaultValue = "false")
+	private boolean parallel;
+
+	/**
+	 * Schema validation: strict, lazy (only if the model can't be read) or
+	 * off.
+	 */
+	@Parameter(property = "codegenj.validation", defaultValue = "strict")
+	private String validation;
+
+	/**
+	 * Keep a binary snapshot of the model next to each XML file.
+	 */
+	@Parameter(property = "codegenj.snapshot", defaultValue = "false")
+	private boolean snapshot;
+
+	/**
+	 * Generate while reading, for XML files too large to hold in memory.
+	 */
+	@Parameter(property = "codegenj.stream", defaultValue = "false")
+	private boolean stream;
+
+	@Parameter(property = "codegenj.skip", defaultValue = "false")
+	private boolean skip;
+
+	@Parameter(defaultValue = "${project}", readonly = true, required = true)
+	private MavenProject project;
+
+	public void execute() throws MojoExecutionException {
+		if (skip) {
+			getLog().info("Skipping codegenj");
+			return;
+		}
+
+		List<File> inputs = new ArrayList<File>();
+		if (xmlFiles != null && !xmlFiles.isEmpty()) {
+			inputs.addAll(xmlFiles);
+		} else if (sourceDirectory.isDirectory()) {
+			inputs.add(sourceDirectory);
+		} else {
+			getLog().info("No introspection files in " + sourceDirectory);
+			return;
+		}
+
+		CodegenJ codegenj = new CodegenJ(inputs.get(0).getPath(),
+				outputDirectory.getPath(), busname, interfacePrefix, library);
+		for (File input : inputs.subList(1, inputs.size())) {
+			codegenj.addInput(input.getPath());
+		}
+		codegenj.setForce(force);
+		codegenj.setParallel(parallel);
+		codegenj.setSnapshot(snapshot);
+		codegenj.setStream(stream);
+		TemplateCache
+				.setTemplateDirectories(templateDirectories != null ? templateDirectories
+						: new ArrayList<File>());
+		// the cache outlives the module, e.g. in a reactor or a daemon
+		TemplateCache.revalidate();
+
+		try {
+			codegenj.setValidation(CodegenJ.Validation.parse(validation));
+			List<CodegenJ> jobs = codegenj.createJobs();
+			CodegenJ.generate(jobs, parallel);
+			for (CodegenJ job : jobs) {
+				project.addCompileSourceRoot(new File(job.getDestination(),
+						"generated").getPath());
+			}
+		} catch (Error e) {
+			throw new MojoExecutionException(e.getLocalizedMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj;
+
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Block handlers by processing objective type and block argument. A handler
+ * registered for a type also serves its subclasses, a handler registered
+ * without block argument serves any argument not registered explicitly.
+ */
+public final class BlockHandlerRegistry {
+	private static final String ANY = "";
+
+	private static BlockHandlerRegistry defaultRegistry;
+
+	private final ConcurrentMap<Key, ObjectiveBlockHandler> handlers = new ConcurrentHashMap<Key, ObjectiveBlockHandler>();
+	private final ConcurrentMap<Key, ObjectiveBlockHandler> resolved = new ConcurrentHashMap<Key, ObjectiveBlockHandler>();
+
+	/**
+	 * @return the registry with the handlers of all {@link BlockHandlerProvider}
+	 *         services on the class path.
+	 */
+	public static synchronized BlockHandlerRegistry getDefault() {
+		if (defaultRegistry == null) {
+			BlockHandlerRegistry registry = new BlockHandlerRegistry();
+			for (BlockHandlerProvider provider : ServiceLoader
+					.load(BlockHandlerProvider.class)) {
+				provider.registerHandlers(registry);
+			}
+			defaultRegistry = registry;
+		}
+		return defaultRegistry;
+	}
+
+	/**
+	 * @param blockArg
+	 *            argument of the for or case block, or null for any argument.
+	 */
+	public void register(Class<? extends ProcessingObjective> type,
+			String blockArg, ObjectiveBlockHandler handler) {
+		handlers.put(new Key(type, blockArg == null ? ANY : blockArg), handler);
+		resolved.clear();
+	}
+
+	/**
+	 * @return the handler for the most specific type and argument.
+	 */
+	public ObjectiveBlockHandler resolve(
+			Class<? extends ProcessingObjective> type, String blockArg) {
+		Key key = new Key(type, blockArg);
+		ObjectiveBlockHandler handler = resolved.get(key);
+		if (handler == null) {
+			for (Class<?> c = type; handler == null && c != null; c = c
+					.getSuperclass()) {
+				handler = handlers.get(new Key(c, blockArg));
+				if (handler == null) {
+					handler = handlers.get(new Key(c, ANY));
+				}
+			}
+			if (handler == null) {
+				throw new Error("No block processing found for "
+						+ type.getName() + " and block argument '" + blockArg
+						+ "'");
+			}
+			resolved.put(key, handler);
+		}
+		return handler;
+	}
+
+	private static final class Key {
+		private final Class<?> type;
+		private final String blockArg;
+
+		Key(Class<?> type, String blockArg) {
+			this.type = type;
+			this.blockArg = blockArg;
+		}
+
+		@Override
+		public int hashCode() {
+			return type.hashCode() * 31 + blockArg.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return type == other.type && blockArg.equals(other.blockArg);
+		}
+	}
+}
@@ -16,41 +16,27 @@
 package de.serviceflow.codegenj;
 
 import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.util.Map;
 
 public class CaseBlock extends Block {
 
-	private StringWriter sw = new StringWriter();
-	private PrintWriter w2 = new PrintWriter(sw);
-	private String caseName;
-
-	private final PrintWriter parentWriter;
+	private final String caseName;
+	private final ObjectiveBlockHandler handler;
 
 	public CaseBlock(ProcessingObjective context,
-			Map<String, String> parameters, TemplateParser t, PrintWriter w,
-			String caseName) {
-		super("case", context, parameters, t, w);
+			Parameters parameters, PrintWriter w,
+			String caseName, TemplateNode body,
+			ObjectiveBlockHandler handler) {
+		super("case", context, parameters, w, body);
 
-		sw = new StringWriter();
-		w2 = new PrintWriter(sw);
 		this.caseName = caseName;
-
-		parentWriter = w;
-		setWriter(w2);
+		this.handler = handler;
 	}
 
-	public boolean process(boolean cachemode) {
-		boolean valid = super.process(cachemode);
-		w2.close();
-
-		String blockContent = sw.toString();
-
-		if (valid) {
-			getContext()
-					.process(this, caseName, parentWriter, blockContent); 
+	public void process() {
+		if (Trace.isEnabled(Trace.Level.BLOCK)) {
+			Trace.getListener().block(getBlockname(), getContext(), caseName);
 		}
-		return valid;
+		handler.process(this, getContext(), caseName, getWriter());
 	}
 
 	public String getCaseName() {
@@ -15,32 +15,42 @@
  */
 package de.serviceflow.codegenj;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.util.HashMap;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import javax.xml.XMLConstants;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
-import javax.xml.bind.ValidationEvent;
-import javax.xml.bind.ValidationEventHandler;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
 
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
 import de.serviceflow.codegenj.Node.Interface;
-import de.serviceflow.codegenj.Node.Interface.Property;
-import de.serviceflow.codegenj.Node.Interface.Member.Annotation;
 import de.serviceflow.codegenj.java.CodeGenerationProcessing;
 import de.serviceflow.codegenj.java.InterfaceSourceGenerator;
 import de.serviceflow.codegenj.java.MakefileGenerator;
@@ -58,6 +68,32 @@ public class CodegenJ {
 
 	private static CodegenJ instance = null;
 
+	/**
+	 * Manifest unit of the whole XML file, up to date if neither the file, the
+	 * options nor a template changed.
+	 */
+	private static final String INPUT_KEY = "input";
+
+	/**
+	 * Schema validation of the XML files: always, only to explain a file the
+	 * model can't be read from, or never for trusted input.
+	 */
+	public enum Validation {
+		STRICT, LAZY, OFF;
+
+		/**
+		 * @param mode
+		 *            mode name, case insensitive.
+		 */
+		public static Validation parse(String mode) {
+			try {
+				return valueOf(mode.toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new Error("Unknown validation mode: '" + mode + "'");
+			}
+		}
+	}
+
 	public static void main(String[] args) {
 
 		new CodegenJ().run(args);
@@ -65,40 +101,108 @@ public class CodegenJ {
 
 	public final CodeGenerationProcessing initHelper = new CodeGenerationProcessing();
 	private String xmlFile;
+	private final List<String> inputs = new ArrayList<String>();
+	private String batchFile;
+	private boolean destinationOption = false;
 	private String destination = "target";
 	private String busname = "my.dum";
 	private String iprefix = "my.dum.";
 	private String library = "dummydbus";
+	private boolean force = false;
+	private boolean parallel = false;
+	private boolean watch = false;
+	private boolean check = false;
+	private Validation validation = Validation.STRICT;
+	private boolean snapshot = false;
+	private boolean stream = false;
+	private final List<String> templateDirs = new ArrayList<String>();
+	private GenerationManifest manifest;
+	private Node model;
+
+	private static ForkJoinPool pool;
+	private static Schema schema;
+	private static final Queue<Validator> validators = new ConcurrentLinkedQueue<Validator>();
 
 	public CodegenJ() {
 		instance = this;
 	}
 
+	/**
+	 * @param xmlFile
+	 *            XML file, or directory of XML files for {@link #createJobs()}
+	 */
+	public CodegenJ(String xmlFile, String destination, String busname,
+			String iprefix, String library) {
+		this.xmlFile = xmlFile;
+		this.inputs.add(xmlFile);
+		this.destination = destination;
+		this.busname = busname;
+		this.iprefix = iprefix;
+		this.library = library;
+	}
+
+	/**
+	 * Copy the options of another instance, but not its input files.
+	 */
+	private CodegenJ(CodegenJ options) {
+		destination = options.destination;
+		busname = options.busname;
+		iprefix = options.iprefix;
+		library = options.library;
+		force = options.force;
+		parallel = options.parallel;
+		validation = options.validation;
+		snapshot = options.snapshot;
+		stream = options.stream;
+	}
+
 	public void run(String[] args) {
-		String xmlfile;
 		try {
-			initHelper.initializeProcessing();
-			xmlfile = parseOptions(args);
-			Node rootNode = parseXML(xmlfile);
-			generateCode(rootNode, null);
+			parseOptions(args);
+			List<File> dirs = new ArrayList<File>();
+			for (String dir : templateDirs) {
+				dirs.add(new File(dir));
+			}
+			TemplateCache.setTemplateDirectories(dirs);
+			List<CodegenJ> jobs = createJobs();
+			if (check) {
+				boolean reproducible = true;
+				for (CodegenJ job : jobs) {
+					List<String> differences = job.checkReproducible();
+					if (!differences.isEmpty()) {
+						System.err.println(job.xmlFile
+								+ ": output not reproducible: " + differences);
+						reproducible = false;
+					}
+				}
+				if (!reproducible) {
+					System.exit(-1);
+				}
+			} else if (watch) {
+				new InputWatcher(jobs, dirs).run();
+			} else if (jobs.size() == 1) {
+				jobs.get(0).generate();
+			} else {
+				generate(jobs, parallel);
+			}
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 			System.exit(-1);
-		} catch (JAXBException e) {
-			e.printStackTrace();
-			System.exit(-1);
 		} catch (SAXException e) {
 			System.err.println(e.getLocalizedMessage());
 			System.exit(-1);
 		} catch (XMLStreamException e) {
 			System.err.println(e.getLocalizedMessage());
 			System.exit(-1);
+		} catch (IOException e) {
+			System.err.println(e.getLocalizedMessage());
+			System.exit(-1);
 		}
 	}
 
 	public String parseOptions(String[] args) throws FileNotFoundException {
 		if (args.length < 1 || !stripOptions(args)) {
-			System.err.println("Usage: CodegenJ [-d <destination>] -l <library> -b <busname> -i <interfaceprefix> <xmlfile>");
+			System.err.println("Usage: CodegenJ [-d <destination>] [-f] [-p] [-t <templatedir>] [-validate strict|lazy|off] [-snapshot] [-stream] [--watch] [-check] -l <library> -b <busname> -i <interfaceprefix> [-batch <listfile>] <xmlfile|xmldir> ...");
 			System.exit(-1);
 		}
 
@@ -113,6 +217,7 @@ public class CodegenJ {
 						return false;
 					}
 					destination = args[i];
+					destinationOption = true;
 				}
 				else if ("-b".equals(args[i])) {
 					if (++i == args.length) {
@@ -132,286 +237,732 @@ public class CodegenJ {
 					}
 					library = args[i];
 				}
+				else if ("-f".equals(args[i])) {
+					force = true;
+				}
+				else if ("-p".equals(args[i])) {
+					parallel = true;
+				}
+				else if ("-t".equals(args[i])) {
+					if (++i == args.length) {
+						return false;
+					}
+					templateDirs.add(args[i]);
+				}
+				else if ("-validate".equals(args[i])) {
+					if (++i == args.length) {
+						return false;
+					}
+					validation = Validation.parse(args[i]);
+				}
+				else if ("-snapshot".equals(args[i])) {
+					snapshot = true;
+				}
+				else if ("-stream".equals(args[i])) {
+					stream = true;
+				}
+				else if ("--watch".equals(args[i])) {
+					watch = true;
+				}
+				else if ("-check".equals(args[i])) {
+					check = true;
+				}
+				else if ("-batch".equals(args[i])) {
+					if (++i == args.length) {
+						return false;
+					}
+					batchFile = args[i];
+				}
 				else
 					return false;
-			} else if (xmlFile != null) {
-				return false;
 			} else {
-				xmlFile = args[i];
+				if (xmlFile == null) {
+					xmlFile = args[i];
+				}
+				inputs.add(args[i]);
 			}
 		}
-		return xmlFile != null;
+		return xmlFile != null || batchFile != null;
 	}
 
-	public Node parseXML(String xmlfile) throws JAXBException, SAXException,
-			XMLStreamException, FileNotFoundException {
-		SchemaFactory schemaFactory = SchemaFactory
-				.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-
-		Source schemaSource = new StreamSource(getClass().getResourceAsStream(
-				"/" + "dbus.xsd"), getClass().getResource("/" + "dbus.xsd")
-				.toString());
-
-		Schema schema = schemaFactory.newSchema(schemaSource);
-
-		JAXBContext jaxbContext = JAXBContext.newInstance(Node.class);
-		Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-		unmarshaller.setSchema(schema);
-		unmarshaller.setEventHandler(new DBusValidationEventHandler());
-
-		Node node = (Node) unmarshaller.unmarshal(new FileInputStream(xmlfile));
-
-		XMLInputFactory xif = XMLInputFactory.newFactory();
-		XMLStreamReader xsr = xif.createXMLStreamReader(new FileInputStream(
-				xmlfile));
-
-		String comment = null;
-		Stack<ProcessingObjective> xmlStack = new Stack<ProcessingObjective>();
-		ProcessingObjective currentObject = null;
-		while (xsr.hasNext()) {
-			if (xsr.getEventType() == XMLStreamConstants.COMMENT) {
-				comment = xsr.getText();
-			} else if (xsr.getEventType() == XMLStreamConstants.START_ELEMENT) {
-				xmlStack.push(currentObject);
-				String name = xsr.getName().toString();
-				if (name.equals("node")) {
-					currentObject = node;
-				} else {
-					if (currentObject != null) {
-						currentObject = currentObject
-								.getProcessingObjective(name);
+	/**
+	 * One job per XML file given on the command line, found in a given
+	 * directory or listed in the batch file. A line of the batch file holds
+	 * the options and XML files of a job, options not given default to the
+	 * command line options. With more than one job, each job generates into
+	 * a sub directory of its destination named after the XML file unless the
+	 * destination is given explicitly for the job.
+	 */
+	public List<CodegenJ> createJobs() {
+		List<CodegenJ> templates = new ArrayList<CodegenJ>();
+		if (!inputs.isEmpty()) {
+			templates.add(this);
+		}
+		if (batchFile != null) {
+			try {
+				BufferedReader r = new BufferedReader(new FileReader(batchFile));
+				try {
+					String line;
+					while ((line = r.readLine()) != null) {
+						line = line.trim();
+						if (line.length() == 0 || line.startsWith("#")) {
+							continue;
+						}
+						CodegenJ template = new CodegenJ(this);
+						if (!template.stripOptions(line.split("\\s+"))
+								|| template.batchFile != null
+								|| template.watch
+								|| template.check
+								|| !template.templateDirs.isEmpty()) {
+							throw new Error("Invalid line in " + batchFile
+									+ ": " + line);
+						}
+						templates.add(template);
 					}
+				} finally {
+					r.close();
 				}
-				if (currentObject != null) {
-					currentObject.startScan();
+			} catch (IOException e) {
+				throw new Error("Can't read batch file: "
+						+ e.getLocalizedMessage());
+			}
+		}
+
+		List<CodegenJ> jobs = new ArrayList<CodegenJ>();
+		for (CodegenJ template : templates) {
+			for (String input : template.inputs) {
+				File dir = new File(input);
+				if (dir.isDirectory()) {
+					String[] names = dir.list();
+					Arrays.sort(names);
+					for (String name : names) {
+						if (name.endsWith(".xml")) {
+							jobs.add(template.job(new File(dir, name).getPath(),
+									template != this));
+						}
+					}
+				} else {
+					jobs.add(template.job(input, template != this));
 				}
-				if (comment != null && currentObject != null) {
-					currentObject.setComment(comment);
+			}
+		}
+
+		if (jobs.size() > 1) {
+			Set<String> destinations = new HashSet<String>();
+			for (CodegenJ job : jobs) {
+				if (!job.destinationOption) {
+					String name = new File(job.xmlFile).getName();
+					if (name.endsWith(".xml")) {
+						name = name.substring(0, name.length() - 4);
+					}
+					job.destination = job.destination + "/" + name;
 				}
-				comment = null;
-			} else if (xsr.getEventType() == XMLStreamConstants.END_ELEMENT) {
-				if (currentObject != null) {
-					currentObject.endScan();
+				if (!destinations.add(new File(job.destination)
+						.getAbsolutePath())) {
+					throw new Error("Destination used by more than one XML file: "
+							+ job.destination);
 				}
-				currentObject = xmlStack.pop();
 			}
-			xsr.next();
 		}
+		return jobs;
+	}
 
-		return node;
+	/**
+	 * @param batchLine
+	 *            true if the options come from a line of the batch file
+	 */
+	private CodegenJ job(String xmlfile, boolean batchLine) {
+		CodegenJ job = new CodegenJ(this);
+		job.destinationOption = batchLine && destinationOption;
+		job.xmlFile = xmlfile;
+		job.inputs.add(xmlfile);
+		return job;
 	}
 
 	/**
-	 * Major code generation flow.
+	 * Parse the XML file and generate the code, unless the manifest shows the
+	 * output of the same XML file, options and templates complete. The parsed
+	 * model is kept until {@link #reload()}.
 	 */
-	public void generateCode(Node node, Node parent) {
-		Map<String, String> parameters = new HashMap<String, String>();
+	public void generate() throws SAXException, XMLStreamException,
+			FileNotFoundException {
+		GenerationManifest.Fingerprint f = new GenerationManifest.Fingerprint();
+		f.add(busname).add(iprefix).add(library).add(xmlFile);
+		f.addFile(new File(xmlFile));
+		InterfaceSourceGenerator.fingerprintTemplates(f);
+		MakefileGenerator.fingerprintTemplates(f);
+		ObjectManagerGenerator.fingerprintTemplates(f);
+		String fingerprint = f.get();
+		if (!force && getManifest().isUpToDate(INPUT_KEY, fingerprint)) {
+			return;
+		}
 
-		parameters.put("node.name", node.getName());
-		parameters.put("busname", busname);
-		parameters.put("iprefix", iprefix);
-		parameters.put("library", library);
-		StringBuffer headerFiles = new StringBuffer();
-		StringBuffer classlist = new StringBuffer();
-		StringBuffer objFiles = new StringBuffer();
+		if (stream) {
+			streamXML(xmlFile);
+		} else {
+			if (model == null) {
+				model = parseXML(xmlFile);
+			}
+			generateCode(model);
+		}
+		getManifest().record(INPUT_KEY, fingerprint,
+				getManifest().getOutputFiles());
+		getManifest().save();
+	}
 
-		/*
-		 * prepare collector generation
-		 */
-		for (Interface i : node.getInterfaces()) {
-			for (Annotation a : i.getAnnotations()) {
-				if ("de.serviceflow.codegenj.CollectorAPI".equals(a.getName())) {
-					String mname = a.getValue();
-					int index = mname.indexOf('#');
-					if (index < 0) {
-						throw new Error(
-								"Value of annotation de.serviceflow.codegenj.CollectorAPI must be 'class#method' at interface "
-										+ i.getName());
-					}
-					String targettemplate = mname.substring(0, index);
+	/**
+	 * Generate the code twice, each time into a new temporary directory, and
+	 * compare both outputs. The destination is not touched.
+	 * 
+	 * @return paths of the files that differ or exist in one output only,
+	 *         relative to the destination. Empty if the output is
+	 *         reproducible.
+	 */
+	public List<String> checkReproducible() throws SAXException,
+			XMLStreamException, IOException {
+		File first = Files.createTempDirectory("codegenj").toFile();
+		File second = Files.createTempDirectory("codegenj").toFile();
+		try {
+			for (File dir : new File[] { first, second }) {
+				CodegenJ job = new CodegenJ(this);
+				job.xmlFile = xmlFile;
+				job.destination = dir.getPath();
+				job.force = true;
+				job.snapshot = false;
+				job.generate();
+			}
+			Map<String, File> files = listFiles(first, "",
+					new TreeMap<String, File>());
+			Map<String, File> others = listFiles(second, "",
+					new TreeMap<String, File>());
+			List<String> differences = new ArrayList<String>();
+			for (Map.Entry<String, File> e : files.entrySet()) {
+				File other = others.remove(e.getKey());
+				if (other == null
+						|| !Arrays.equals(Files.readAllBytes(e.getValue()
+								.toPath()), Files.readAllBytes(other.toPath()))) {
+					differences.add(e.getKey());
+				}
+			}
+			differences.addAll(others.keySet());
+			return differences;
+		} finally {
+			delete(first);
+			delete(second);
+		}
+	}
+
+	/**
+	 * Generated files below a directory by relative path, without the
+	 * manifest which holds the paths of the directory.
+	 */
+	private static Map<String, File> listFiles(File dir, String prefix,
+			Map<String, File> files) {
+		for (File f : dir.listFiles()) {
+			if (f.isDirectory()) {
+				listFiles(f, prefix + f.getName() + "/", files);
+			} else if (!GenerationManifest.FILE_NAME.equals(f.getName())) {
+				files.put(prefix + f.getName(), f);
+			}
+		}
+		return files;
+	}
 
-					String templateclassname = "de.serviceflow.codegenj.ObjectManager";
-					if (templateclassname.equals(targettemplate)) {
-						node.getInterfaceCollectorMap().put(i, a.getValue());
-						continue;
+	private static void delete(File f) {
+		File[] files = f.listFiles();
+		if (files != null) {
+			for (File c : files) {
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+
+	/**
+	 * Drop the parsed model, the next {@link #generate()} parses the XML file
+	 * again.
+	 */
+	void reload() {
+		model = null;
+	}
+
+	/**
+	 * Add an XML file or directory of XML files for {@link #createJobs()}.
+	 */
+	public void addInput(String xmlFile) {
+		inputs.add(xmlFile);
+	}
+
+	public String getXmlFile() {
+		return xmlFile;
+	}
+
+	public String getDestination() {
+		return destination;
+	}
+
+	public void setForce(boolean force) {
+		this.force = force;
+	}
+
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public void setValidation(Validation validation) {
+		this.validation = validation;
+	}
+
+	public void setSnapshot(boolean snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	public void setStream(boolean stream) {
+		this.stream = stream;
+	}
+
+	/**
+	 * Generate the code of several jobs in one JVM. Templates, block handlers
+	 * and the schema are shared; in parallel mode the jobs run concurrently.
+	 */
+	public static void generate(List<CodegenJ> jobs, boolean parallel) {
+		final List<RecursiveAction> actions = new ArrayList<RecursiveAction>();
+		for (final CodegenJ job : jobs) {
+			actions.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					try {
+						job.generate();
+					} catch (Exception e) {
+						throw new Error("Code generation failed for "
+								+ job.xmlFile + ": " + e.getLocalizedMessage(), e);
 					}
-					for (Interface i2 : node.getInterfaces()) {
-						templateclassname = i2.getName();
-						if (templateclassname.equals(targettemplate)) {
-							i2.getInterfaceCollectorMap().put(i, a.getValue());
-							templateclassname = null;
-							break;
-						}
+				}
+			});
+		}
+		if (!parallel) {
+			for (RecursiveAction a : actions) {
+				a.invoke();
+			}
+			return;
+		}
+		getPool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(actions);
+			}
+		});
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool();
+		}
+		return pool;
+	}
+
+	/**
+	 * Read the XML file once, validate it against the schema according to the
+	 * validation mode and build the model with the {@link ModelReader}. In
+	 * snapshot mode the model is taken from the {@link ModelSnapshot} of the
+	 * XML file if it is up to date, or stored in a new snapshot.
+	 * 
+	 * @return the frozen model
+	 */
+	public Node parseXML(String xmlfile) throws SAXException,
+			XMLStreamException, FileNotFoundException {
+		byte[] content = readFile(xmlfile);
+		String hash = null;
+		if (snapshot) {
+			hash = ContentHash.of(content);
+			Node node = ModelSnapshot.load(ModelSnapshot.fileOf(xmlfile), hash,
+					validation == Validation.STRICT);
+			if (node != null) {
+				node.freeze();
+				return node;
+			}
+		}
+
+		if (validation == Validation.STRICT) {
+			validate(new StreamSource(new ByteArrayInputStream(content),
+					xmlfile), xmlfile);
+		}
+		Node node;
+		try {
+			node = ModelReader.read(new ByteArrayInputStream(content), xmlfile);
+		} catch (XMLStreamException e) {
+			if (validation == Validation.LAZY) {
+				validate(new StreamSource(new ByteArrayInputStream(content),
+						xmlfile), xmlfile);
+			}
+			throw e;
+		}
+
+		if (snapshot) {
+			ModelSnapshot.save(ModelSnapshot.fileOf(xmlfile), hash,
+					validation == Validation.STRICT, node);
+		}
+		node.freeze();
+		return node;
+	}
+
+	/**
+	 * Generate the code while reading the XML file. The interfaces of a node
+	 * are generated as soon as they are read and released afterwards, only
+	 * the aggregates of the tree are held in memory. Collector links can name
+	 * the ObjectManager or interfaces of the same node, not interfaces of
+	 * other nodes; otherwise the output is the same as in tree mode. The XML
+	 * file is validated in a separate streaming pass.
+	 */
+	private void streamXML(String xmlfile) throws SAXException,
+			XMLStreamException, FileNotFoundException {
+		if (validation == Validation.STRICT) {
+			validate(new StreamSource(new File(xmlfile)), xmlfile);
+		}
+		final Aggregates[] tree = new Aggregates[1];
+		InputStream in = new FileInputStream(xmlfile);
+		try {
+			ModelReader.stream(in, xmlfile, new ModelReader.NodeHandler() {
+				public void interfacesRead(Node node) {
+					if (tree[0] == null) {
+						tree[0] = new Aggregates(node);
 					}
-					if (templateclassname != null) {
-						throw new Error(
-								"Value of annotation de.serviceflow.codegenj.CollectorAPI contains a unkown target interface class at interface "
-										+ i.getName()
-										+ ": "
-										+ templateclassname);
+					node.freezeInterfaces();
+					node.resolveCollectorLinks(null);
+					node.freezeCollectorLinks();
+					generateInterfaces(node, tree[0]);
+					node.releaseInterfaces();
+				}
+
+				public void nodeRead(Node node) {
+					if (node == tree[0].root) {
+						generateAggregates(tree[0]);
 					}
 				}
+			});
+		} catch (XMLStreamException e) {
+			if (validation == Validation.LAZY) {
+				validate(new StreamSource(new File(xmlfile)), xmlfile);
 			}
-			for (Property p : i.getProperties()) {
-				for (Annotation a : p.getAnnotations()) {
-					if ("de.serviceflow.codegenj.CollectorAPI".equals(a.getName())) {
-						if (!"read".equals(p.getAccess())) {
-							throw new Error(
-									"property-access at annotation de.serviceflow.codegenj.CollectorAPI must be 'read' at interface "
-											+ i.getName()
-											+ " at property "
-											+ p.getName());
-						}
-						if (!"ao".equals(p.getType())) {
-							throw new Error(
-									"property-type at annotation de.serviceflow.codegenj.CollectorAPI must be 'ao' at interface "
-											+ i.getName()
-											+ " at property "
-											+ p.getName());
-						}
-						String mname = a.getValue();
-						int index = mname.indexOf('#');
-						if (index >= 0) {
-							throw new Error(
-									"Value of annotation de.serviceflow.codegenj.CollectorAPI must be 'interfacename' at interface "
-											+ i.getName()
-											+ " at property "
-											+ p.getName());
-						}
+			throw e;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// read completely or failed before
+			}
+		}
+	}
 
-						String targettemplate = mname;
-						for (Interface i2 : node.getInterfaces()) {
-							String templateclassname = i2.getName();
-							if (templateclassname.equals(targettemplate)) {
-								i.getInterfaceCollectorMap().put(i2,
-										i.getName() + "#*get" + p.getName());
-								// throw new Error(i2.getName()+" .... " +
-								// i.getName()+"#get"+p.getName());
-								targettemplate = null;
-								break;
-							}
-						}
+	/**
+	 * Validate with a validator of the pool. Validators aren't thread-safe,
+	 * each one is used by one thread at a time and reset after use.
+	 */
+	private static void validate(Source source, String xmlfile)
+			throws SAXException {
+		Validator validator = validators.poll();
+		if (validator == null) {
+			validator = getSchema().newValidator();
+		}
+		try {
+			validator.validate(source);
+		} catch (SAXParseException e) {
+			throw new SAXParseException(xmlfile + " line " + e.getLineNumber()
+					+ ": " + e.getMessage(), e.getPublicId(), e.getSystemId(),
+					e.getLineNumber(), e.getColumnNumber(), e);
+		} catch (IOException e) {
+			throw new Error("Can't validate " + xmlfile + ": "
+					+ e.getLocalizedMessage());
+		} finally {
+			validator.reset();
+			validators.offer(validator);
+		}
+	}
 
-						if (targettemplate != null) {
-							throw new Error(
-									"Value of annotation de.serviceflow.codegenj.CollectorAPI contains a unkown target interface class at interface "
-											+ i.getName()
-											+ ": "
-											+ targettemplate);
-						}
-					}
+	private static byte[] readFile(String file) throws FileNotFoundException {
+		InputStream in = new FileInputStream(file);
+		try {
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) >= 0) {
+					out.write(buffer, 0, n);
 				}
+				return out.toByteArray();
+			} finally {
+				in.close();
 			}
+		} catch (IOException e) {
+			throw new Error("Can't read " + file + ": "
+					+ e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * @return the schema of the introspection format, compiled once per JVM.
+	 */
+	private static synchronized Schema getSchema() throws SAXException {
+		if (schema == null) {
+			SchemaFactory schemaFactory = SchemaFactory
+					.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+
+			Source schemaSource = new StreamSource(
+					CodegenJ.class.getResourceAsStream("/" + "dbus.xsd"),
+					CodegenJ.class.getResource("/" + "dbus.xsd").toString());
+
+			schema = schemaFactory.newSchema(schemaSource);
+		}
+		return schema;
+	}
+
+	/**
+	 * Major code generation flow: the files of all interfaces of the tree,
+	 * then one Makefile and ObjectManager for the whole tree.
+	 */
+	public void generateCode(Node node) {
+		node.freeze();
+
+		Aggregates aggregates = new Aggregates(node);
+		generateTree(node, aggregates);
+		generateAggregates(aggregates);
+	}
+
+	private void generateTree(Node node, Aggregates aggregates) {
+		generateInterfaces(node, aggregates);
+		for (Node c : node.getChilds()) {
+			generateTree(c, aggregates);
 		}
+	}
 
-		classlist.append("de.serviceflow.codegenj.ObjectManager");
+	/**
+	 * Generate the files of the interfaces of a node and add them to the
+	 * aggregates of the tree. An interface of an earlier node with the same
+	 * name is generated only there, from its first definition.
+	 */
+	private void generateInterfaces(Node node, Aggregates aggregates) {
+		Parameters parameters = aggregates.options.with("node.name",
+				node.getName());
 
 		/*
 		 * Create Interface-JNI Layer with .c and .java files
 		 */
+		List<InterfaceGeneration> generations = new ArrayList<InterfaceGeneration>();
 		for (Interface i : node.getInterfaces()) {
-			boolean isSkeleton = false;
-			for (Annotation a : i.getAnnotations()) {
-				if ("de.serviceflow.codegenj.SkeletonAPI".equals(a.getName())) {
-					isSkeleton = true;
-				}
+			if (!aggregates.interfaces.add(i.getName())) {
+				continue; // same interface in another node, generated once
 			}
+			boolean isSkeleton = i.isSkeleton();
 			
-			initHelper.processInterface(parameters, i);
+			Parameters iparameters = initHelper.processInterface(parameters, i);
 
 			InterfaceSourceGenerator itp = new InterfaceSourceGenerator(i,
-					parameters, destination);
+					iparameters, destination);
 			// itp.addBlockProccessor(new ForBlock());
+			generations.add(new InterfaceGeneration(i, itp));
+			aggregates.api.addOwner(i);
 
-			itp.open();
-			itp.generate();
-			itp.close();
+			StringBuffer headerFiles = aggregates.headerFiles;
+			StringBuffer classlist = aggregates.classlist;
+			StringBuffer objFiles = aggregates.objFiles;
 
 			headerFiles.append(' ');
-			headerFiles.append(parameters.get("interface.jname"));
+			headerFiles.append(iparameters.get("interface.jname"));
 			headerFiles.append(".h");
 
 			// de.serviceflow.codegenj.ObjectManager org.bluez.Adapter1 org.bluez.Device1 org.bluez.GattCharacteristic1 org.bluez.GattDescriptor1 org.bluez.GattService1 org.bluez.Agent1 org.bluez.AgentManager1
 			classlist.append(' ');
-			classlist.append(parameters.get("interface.name"));
+			classlist.append(iparameters.get("interface.name"));
 			
 			if (isSkeleton) {
 				classlist.append(' ');		
-				classlist.append(parameters.get("interface.name")+"CB");
+				classlist.append(iparameters.get("interface.name")+"CB");
 				
 				objFiles.append(' ');
-				objFiles.append(parameters.get("interface.uname"));
+				objFiles.append(iparameters.get("interface.uname"));
 				objFiles.append("CB.o");
 			}
 			else {
 				classlist.append(' ');		
-				classlist.append(parameters.get("interface.name")+"Proxy");
+				classlist.append(iparameters.get("interface.name")+"Proxy");
 				classlist.append(' ');
-				classlist.append(parameters.get("interface.name")+"Skeleton");
+				classlist.append(iparameters.get("interface.name")+"Skeleton");
 				
 				objFiles.append(' ');
-				objFiles.append(parameters.get("interface.uname"));
+				objFiles.append(iparameters.get("interface.uname"));
 				objFiles.append("Proxy.o");
 				objFiles.append(' ');
-				objFiles.append(parameters.get("interface.uname"));
+				objFiles.append(iparameters.get("interface.uname"));
 				objFiles.append("Skeleton.o");
 			}
 		}
-		parameters.remove("interface.name");
 
-		// recursion with subnodes (optional)
-		for (Node c : node.getChilds()) {
-			generateCode(c, node);
-		}
-
-		parameters.remove("node.name");
+		renderInterfaces(generations);
 
-		/*
-		 * Create Makefile for library loaded by JNI
-		 */
+		aggregates.addObjectManagerLinks(node);
+	}
 
-		parameters.put("headerfiles", headerFiles.toString());
-		parameters.put("classlist", classlist.toString());
-		parameters.put("objfiles", objFiles.toString());
+	/**
+	 * Generate the Makefile and ObjectManager of the tree.
+	 */
+	private void generateAggregates(Aggregates aggregates) {
+		Node node = aggregates.root.withCollectorLinks(aggregates.objectManagerLinks);
+		Parameters.Builder scope = aggregates.options.extend();
+		scope.put("headerfiles", aggregates.headerFiles.toString());
+		scope.put("classlist", aggregates.classlist.toString());
+		scope.put("objfiles", aggregates.objFiles.toString());
 		String xml = xmlFile;
 		if (xml.lastIndexOf('/')>=0)
 			xml = xml.substring(xml.lastIndexOf('/')+1);
-		parameters.put("xmlfile", xml);
-		
-		MakefileGenerator mg = new MakefileGenerator(node, parameters,
-				destination);
-		mg.open();
-		mg.generate();
-		mg.close();
+		scope.put("xmlfile", xml);
+		aggregates.api.put(scope, node);
+		Parameters parameters = scope.build();
 
 		/*
 		 * Create Makefile for library loaded by JNI
 		 */
+		MakefileGenerator mg = new MakefileGenerator(node, parameters,
+				destination);
 
+		/*
+		 * Create ObjectManager
+		 */
 		ObjectManagerGenerator omg = new ObjectManagerGenerator(node,
 				parameters, destination);
-		omg.open();
-		omg.generate();
-		omg.close();
+
+		GenerationManifest.Fingerprint f = new GenerationManifest.Fingerprint();
+		mg.fingerprint(f);
+		omg.fingerprint(f);
+		String key = "tree";
+		String fingerprint = f.get();
+		if (force || !getManifest().isUpToDate(key, fingerprint)) {
+			mg.open();
+			mg.generate();
+			mg.close();
+
+			omg.open();
+			omg.generate();
+			omg.close();
+
+			List<File> outputs = new ArrayList<File>(mg.getOutputFiles());
+			outputs.addAll(omg.getOutputFiles());
+			getManifest().record(key, fingerprint, outputs);
+		}
 
 	}
 
-	public static CodegenJ getInstance() {
-		return instance;
+	/**
+	 * Data of all nodes of a tree for its Makefile and ObjectManager. An
+	 * interface defined in more than one node is added once. The
+	 * ObjectManager collector links of all nodes are merged here, the nodes
+	 * are not changed.
+	 */
+	private final class Aggregates {
+		final Node root;
+		final Parameters options = Parameters.EMPTY.extend()
+				.put("busname", busname).put("iprefix", iprefix)
+				.put("library", library).build();
+		final Set<String> interfaces = new HashSet<String>();
+		final StringBuffer headerFiles = new StringBuffer();
+		final StringBuffer classlist = new StringBuffer(
+				"de.serviceflow.codegenj.ObjectManager");
+		final StringBuffer objFiles = new StringBuffer();
+		final CodeGenerationProcessing.CollectorAPI api = new CodeGenerationProcessing.CollectorAPI();
+		final Map<Interface, String> objectManagerLinks = new LinkedHashMap<Interface, String>();
+		private final Set<String> objectManagerLinkNames = new HashSet<String>();
+
+		Aggregates(Node root) {
+			this.root = root;
+		}
+
+		/**
+		 * Add the ObjectManager links of a node, once its collector links are
+		 * resolved. An interface linked by more than one node is added once.
+		 */
+		void addObjectManagerLinks(Node node) {
+			for (Map.Entry<Interface, String> e : node
+					.getInterfaceCollectorMap().entrySet()) {
+				if (objectManagerLinkNames.add(e.getKey().getName())) {
+					Interface i = new Interface();
+					i.setName(e.getKey().getName());
+					objectManagerLinks.put(i, e.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Render interfaces, in parallel mode on a work-stealing pool. Each
+	 * interface writes its own files, so the output doesn't depend on the
+	 * order of execution.
+	 */
+	private void renderInterfaces(final List<InterfaceGeneration> generations) {
+		if (!parallel || generations.size() < 2) {
+			for (InterfaceGeneration g : generations) {
+				g.compute();
+			}
+			return;
+		}
+		if (ForkJoinTask.inForkJoinPool()) {
+			ForkJoinTask.invokeAll(generations);
+			return;
+		}
+		getPool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(generations);
+			}
+		});
 	}
 
-	public class DBusValidationEventHandler implements ValidationEventHandler {
-		public boolean handleEvent(ValidationEvent event) {
-			System.out.println("*** Validation of XML input failed ***");
-			System.out.println("MESSAGE:  " + event.getMessage());
+	/**
+	 * Generation of the files of an interface, skipped if the manifest shows
+	 * them up to date.
+	 */
+	private final class InterfaceGeneration extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Interface i;
+		private final InterfaceSourceGenerator itp;
+
+		InterfaceGeneration(Interface i, InterfaceSourceGenerator itp) {
+			this.i = i;
+			this.itp = itp;
+		}
 
-			return false;
+		@Override
+		protected void compute() {
+			GenerationManifest.Fingerprint f = new GenerationManifest.Fingerprint();
+			itp.fingerprint(f);
+			String key = "interface " + i.getName();
+			String fingerprint = f.get();
+			if (force || !getManifest().isUpToDate(key, fingerprint)) {
+				itp.open();
+				itp.generate();
+				itp.close();
+				getManifest().record(key, fingerprint, itp.getOutputFiles());
+			}
 		}
 	}
 
-	public ObjectiveBlockHandler findProcessing(
-			String processingObjectiveClassName) {
-		return initHelper.getBlockMap().get(processingObjectiveClassName);
+	/**
+	 * @return the manifest of the destination directory.
+	 */
+	public synchronized GenerationManifest getManifest() {
+		if (manifest == null) {
+			manifest = GenerationManifest.load(destination);
+		}
+		return manifest;
+	}
+
+	public static CodegenJ getInstance() {
+		return instance;
 	}
 
 }
\ No newline at end of file
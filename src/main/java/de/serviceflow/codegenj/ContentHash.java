@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-1 content hashes in hex notation.
+ */
+public final class ContentHash {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static String of(String content) {
+		return of(content.getBytes(UTF8));
+	}
+
+	public static String of(byte[] content) {
+		return of(content, 0, content.length);
+	}
+
+	public static String of(byte[] content, int offset, int length) {
+		MessageDigest md = newDigest();
+		md.update(content, offset, length);
+		return hex(md.digest());
+	}
+
+	public static String of(char[] content, int offset, int length) {
+		ByteBuffer bytes = UTF8.encode(CharBuffer.wrap(content, offset, length));
+		MessageDigest md = newDigest();
+		md.update(bytes);
+		return hex(md.digest());
+	}
+
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new Error("Internal error", e);
+		}
+	}
+
+	public static String hex(byte[] digest) {
+		char[] result = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			result[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+			result[2 * i + 1] = HEX[digest[i] & 0xf];
+		}
+		return new String(result);
+	}
+}
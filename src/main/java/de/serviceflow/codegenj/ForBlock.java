@@ -16,45 +16,31 @@
 package de.serviceflow.codegenj;
 
 import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.util.Map;
 
 public class ForBlock extends Block {
 
-	private StringWriter sw = new StringWriter();
-	private PrintWriter w2 = new PrintWriter(sw);
-	private String iterableName;
-
-	private final PrintWriter parentWriter;
+	private final String iterableName;
+	private final ObjectiveBlockHandler handler;
 
 	private ProcessingObjective currentContext;
 	
 	public ForBlock(ProcessingObjective context,
-			Map<String, String> parameters, TemplateParser t, PrintWriter w,
-			String iterableName) {
-		super("for", context, parameters, t, w);
+			Parameters parameters, PrintWriter w,
+			String iterableName, TemplateNode body,
+			ObjectiveBlockHandler handler) {
+		super("for", context, parameters, w, body);
 
-		sw = new StringWriter();
-		w2 = new PrintWriter(sw);
 		this.iterableName = iterableName;
+		this.handler = handler;
 
-		parentWriter = w;
-		setWriter(w2);
-		
 		currentContext = context;
 	}
 
-	public boolean process(boolean cachemode) {
-		boolean valid = super.process(cachemode);
-		w2.close();
-
-		String blockContent = sw.toString();
-
-		if (valid) {
-			getContext()
-					.process(this, iterableName, parentWriter, blockContent); 
+	public void process() {
+		if (Trace.isEnabled(Trace.Level.BLOCK)) {
+			Trace.getListener().block(getBlockname(), getContext(), iterableName);
 		}
-		return valid;
+		handler.process(this, getContext(), iterableName, getWriter());
 	}
 	
 	public void changeContext(ProcessingObjective newContext) {
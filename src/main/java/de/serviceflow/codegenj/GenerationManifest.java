@@ -0,0 +1,299 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import de.serviceflow.codegenj.Node.Interface;
+import de.serviceflow.codegenj.Node.Interface.Member;
+import de.serviceflow.codegenj.Node.Interface.Property;
+import de.serviceflow.codegenj.Node.Interface.Member.Annotation;
+import de.serviceflow.codegenj.Node.Interface.Member.Arg;
+
+/**
+ * Record of a generation run, stored in the destination directory. For each
+ * generation unit (an interface, or the aggregated files of a node) it keeps a
+ * fingerprint of all inputs and the list of files generated from them. A unit
+ * whose fingerprint is unchanged and whose files still exist is skipped on the
+ * next run.
+ */
+public final class GenerationManifest {
+	public static final String FILE_NAME = ".codegenj-manifest";
+
+	/**
+	 * Increment on any change of the generated code that doesn't come from a
+	 * template, e.g. of the marshalling code of CodeGenerationProcessing or
+	 * TypeDescriptor. Part of every fingerprint and of the manifest header, a
+	 * manifest of another version is ignored.
+	 */
+	public static final int GENERATOR_VERSION = 1;
+
+	private static final String HEADER = "codegenj-manifest "
+			+ GENERATOR_VERSION;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final Map<String, Unit> previous = new TreeMap<String, Unit>();
+	private final Map<String, Unit> current = new TreeMap<String, Unit>();
+
+	private GenerationManifest(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the manifest of the last run, or an empty manifest if there is
+	 *         none or it was written by another generator version.
+	 */
+	public static GenerationManifest load(String destination) {
+		GenerationManifest manifest = new GenerationManifest(new File(
+				destination, FILE_NAME));
+		try {
+			BufferedReader r = new BufferedReader(new InputStreamReader(
+					new FileInputStream(manifest.file), UTF8));
+			try {
+				String line = r.readLine();
+				if (!HEADER.equals(line)) {
+					return manifest; // other generator version
+				}
+				while ((line = r.readLine()) != null) {
+					String[] fields = line.split("\t");
+					if (fields.length < 2) {
+						continue;
+					}
+					Unit unit = new Unit(fields[1]);
+					for (int i = 2; i < fields.length; i++) {
+						unit.outputs.add(fields[i]);
+					}
+					manifest.previous.put(fields[0], unit);
+				}
+			} finally {
+				r.close();
+			}
+		} catch (FileNotFoundException e) {
+			// first run
+		} catch (IOException e) {
+			throw new Error("Can't read manifest: " + e.getLocalizedMessage());
+		}
+		return manifest;
+	}
+
+	/**
+	 * @return true if the unit was generated from the same inputs before and
+	 *         all its files still exist. The unit is kept in the manifest.
+	 */
+	public synchronized boolean isUpToDate(String key, String fingerprint) {
+		Unit unit = previous.get(key);
+		if (unit == null || !unit.fingerprint.equals(fingerprint)) {
+			return false;
+		}
+		for (String output : unit.outputs) {
+			if (!new File(output).isFile()) {
+				return false;
+			}
+		}
+		current.put(key, unit);
+		return true;
+	}
+
+	public synchronized void record(String key, String fingerprint,
+			Collection<File> outputs) {
+		Unit unit = new Unit(fingerprint);
+		for (File output : outputs) {
+			unit.outputs.add(output.getPath());
+		}
+		current.put(key, unit);
+	}
+
+	/**
+	 * @return the files of all units generated or checked so far.
+	 */
+	public synchronized List<File> getOutputFiles() {
+		Set<String> files = new LinkedHashSet<String>();
+		for (Unit unit : current.values()) {
+			files.addAll(unit.outputs);
+		}
+		List<File> outputs = new ArrayList<File>();
+		for (String file : files) {
+			outputs.add(new File(file));
+		}
+		return outputs;
+	}
+
+	/**
+	 * Store the units of this run. Units not generated or checked in this run
+	 * are dropped. The stored units are the previous run of the next run.
+	 */
+	public synchronized void save() {
+		OutputFile w = new OutputFile(file.getPath());
+		try {
+			w.print(HEADER);
+			w.print('\n');
+			for (Map.Entry<String, Unit> e : current.entrySet()) {
+				w.print(e.getKey());
+				w.print('\t');
+				w.print(e.getValue().fingerprint);
+				for (String output : e.getValue().outputs) {
+					w.print('\t');
+					w.print(output);
+				}
+				w.print('\n');
+			}
+			w.commit();
+		} finally {
+			w.close();
+		}
+		previous.clear();
+		previous.putAll(current);
+		current.clear();
+	}
+
+	private static final class Unit {
+		final String fingerprint;
+		final List<String> outputs = new ArrayList<String>();
+
+		Unit(String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	/**
+	 * Hash over generation inputs. Values are length prefixed, so adjacent
+	 * values can't be confused.
+	 */
+	public static final class Fingerprint {
+		private final MessageDigest md = ContentHash.newDigest();
+
+		public Fingerprint() {
+			add(HEADER);
+		}
+
+		public Fingerprint add(String value) {
+			if (value == null) {
+				md.update((byte) 0);
+			} else {
+				byte[] bytes = value.getBytes(UTF8);
+				md.update((byte) 1);
+				md.update(Integer.toString(bytes.length).getBytes(UTF8));
+				md.update((byte) ':');
+				md.update(bytes);
+			}
+			return this;
+		}
+
+		/**
+		 * Add the content hash of a file.
+		 */
+		public Fingerprint addFile(File f) throws FileNotFoundException {
+			MessageDigest content = ContentHash.newDigest();
+			InputStream in = new FileInputStream(f);
+			try {
+				try {
+					byte[] buffer = new byte[8192];
+					int n;
+					while ((n = in.read(buffer)) >= 0) {
+						content.update(buffer, 0, n);
+					}
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				throw new Error("Can't read " + f + ": "
+						+ e.getLocalizedMessage());
+			}
+			return add(ContentHash.hex(content.digest()));
+		}
+
+		/**
+		 * Add the content hash of templates.
+		 */
+		public Fingerprint addTemplates(String... paths) {
+			for (String path : paths) {
+				add(path);
+				add(TemplateCache.getContentHash(path));
+			}
+			return this;
+		}
+
+		/**
+		 * Add an interface including its members and its collector links.
+		 */
+		public Fingerprint add(Interface i) {
+			add("interface").add(i.getName()).add(i.getComment());
+			addAnnotations(i.getAnnotations());
+			for (Member m : i.getMethods()) {
+				add("method");
+				addMember(m);
+			}
+			for (Member m : i.getSignals()) {
+				add("signal");
+				addMember(m);
+			}
+			for (Property p : i.getProperties()) {
+				add("property").add(p.getName()).add(p.getType())
+						.add(p.getAccess()).add(p.getComment());
+				addAnnotations(p.getAnnotations());
+			}
+			addCollectorMap(i.getInterfaceCollectorMap());
+			return this;
+		}
+
+		/**
+		 * Add collector links in their order, which is the order of the
+		 * generated code.
+		 */
+		public Fingerprint addCollectorMap(Map<Interface, String> collectorMap) {
+			for (Map.Entry<Interface, String> e : collectorMap.entrySet()) {
+				add("collects").add(e.getKey().getName()).add(e.getValue());
+			}
+			return this;
+		}
+
+		private void addMember(Member m) {
+			add(m.getName()).add(m.getComment());
+			for (Arg a : m.getArgs()) {
+				add("arg").add(a.getName()).add(a.getType())
+						.add(a.getDirection()).add(a.getComment());
+			}
+			addAnnotations(m.getAnnotations());
+		}
+
+		private void addAnnotations(List<Annotation> annotations) {
+			for (Annotation a : annotations) {
+				add("annotation").add(a.getName()).add(a.getValue());
+			}
+		}
+
+		public String get() {
+			return ContentHash.hex(md.digest());
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watch mode: generate all jobs, then wait for changes of their XML files and
+ * of the template directories. A changed XML file is parsed again and its job
+ * generated; a changed template regenerates all jobs, but the manifest skips
+ * every output not rendered by that template. Parsed models, compiled
+ * templates and block handlers stay loaded between the cycles.
+ */
+public final class InputWatcher {
+	/**
+	 * Editors write a file in several steps, events arriving within this time
+	 * are handled in one cycle.
+	 */
+	private static final long SETTLE_MILLIS = 200;
+
+	private final List<CodegenJ> jobs;
+	private final List<Path> templateDirs = new ArrayList<Path>();
+	private final Map<Path, List<CodegenJ>> jobsByFile = new LinkedHashMap<Path, List<CodegenJ>>();
+	private WatchService service;
+
+	public InputWatcher(List<CodegenJ> jobs, List<File> templateDirs) {
+		this.jobs = jobs;
+		for (File dir : templateDirs) {
+			this.templateDirs.add(dir.toPath().toAbsolutePath().normalize());
+		}
+		for (CodegenJ job : jobs) {
+			Path file = path(job.getXmlFile());
+			List<CodegenJ> list = jobsByFile.get(file);
+			if (list == null) {
+				list = new ArrayList<CodegenJ>();
+				jobsByFile.put(file, list);
+			}
+			list.add(job);
+		}
+	}
+
+	/**
+	 * Generate all jobs and regenerate on changes until the thread is
+	 * interrupted.
+	 */
+	public void run() throws IOException {
+		service = FileSystems.getDefault().newWatchService();
+		try {
+			Set<Path> dirs = new HashSet<Path>();
+			for (Path file : jobsByFile.keySet()) {
+				if (dirs.add(file.getParent())) {
+					file.getParent().register(service, ENTRY_CREATE,
+							ENTRY_MODIFY, ENTRY_DELETE);
+				}
+			}
+			for (Path dir : templateDirs) {
+				registerTree(dir);
+			}
+
+			generate(jobs);
+			for (CodegenJ job : jobs) {
+				job.setForce(false);
+			}
+			System.out.println("Watching " + jobsByFile.size()
+					+ " XML file(s) for changes");
+
+			Set<Path> changed = new HashSet<Path>();
+			while (!Thread.currentThread().isInterrupted()) {
+				changed.clear();
+				boolean overflow = collect(service.take(), changed);
+				WatchKey key;
+				while ((key = service.poll(SETTLE_MILLIS,
+						TimeUnit.MILLISECONDS)) != null) {
+					overflow |= collect(key, changed);
+				}
+				cycle(changed, overflow);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			service.close();
+		}
+	}
+
+	/**
+	 * @return true if events were lost.
+	 */
+	private boolean collect(WatchKey key, Set<Path> changed)
+			throws IOException {
+		boolean overflow = false;
+		Path dir = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				overflow = true;
+				continue;
+			}
+			Path file = dir.resolve((Path) event.context());
+			changed.add(file);
+			if (event.kind() == ENTRY_CREATE && isTemplate(file)
+					&& Files.isDirectory(file)) {
+				registerTree(file);
+			}
+		}
+		key.reset();
+		return overflow;
+	}
+
+	private void cycle(Set<Path> changed, boolean overflow) {
+		boolean templatesChanged = overflow;
+		Set<CodegenJ> affected = new HashSet<CodegenJ>();
+		for (Path file : changed) {
+			if (isTemplate(file)) {
+				templatesChanged = true;
+			}
+			List<CodegenJ> list = jobsByFile.get(file);
+			if (list != null) {
+				affected.addAll(list);
+			}
+		}
+		if (overflow) {
+			affected.addAll(jobs);
+		}
+		for (CodegenJ job : affected) {
+			job.reload();
+		}
+		if (templatesChanged) {
+			try {
+				if (TemplateCache.revalidate()) {
+					affected.addAll(jobs);
+				}
+			} catch (Error e) {
+				System.err.println(e.getLocalizedMessage());
+				return;
+			}
+		}
+		if (affected.isEmpty()) {
+			return;
+		}
+
+		List<CodegenJ> cycleJobs = new ArrayList<CodegenJ>();
+		for (CodegenJ job : jobs) {
+			if (affected.contains(job)) {
+				cycleJobs.add(job);
+			}
+		}
+		long start = System.nanoTime();
+		int failed = generate(cycleJobs);
+		System.out.println("Generated " + (cycleJobs.size() - failed) + " of "
+				+ cycleJobs.size() + " XML file(s) in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	/**
+	 * Generate the jobs one after another, so a broken XML file doesn't stop
+	 * the others. In parallel mode the interfaces of each job are rendered
+	 * concurrently.
+	 * 
+	 * @return number of failed jobs.
+	 */
+	private int generate(List<CodegenJ> cycleJobs) {
+		int failed = 0;
+		for (CodegenJ job : cycleJobs) {
+			try {
+				job.generate();
+			} catch (Exception e) {
+				failed++;
+				job.reload();
+				report(job, e);
+			} catch (Error e) {
+				failed++;
+				job.reload();
+				report(job, e);
+			}
+		}
+		return failed;
+	}
+
+	private static void report(CodegenJ job, Throwable e) {
+		while (e.getLocalizedMessage() == null && e.getCause() != null) {
+			e = e.getCause();
+		}
+		System.err.println(job.getXmlFile() + ": "
+				+ (e.getLocalizedMessage() != null ? e.getLocalizedMessage() : e));
+	}
+
+	private boolean isTemplate(Path file) {
+		for (Path dir : templateDirs) {
+			if (file.startsWith(dir)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void registerTree(Path root) throws IOException {
+		if (!Files.isDirectory(root)) {
+			throw new IOException("Template directory not found: " + root);
+		}
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir,
+					BasicFileAttributes attrs) throws IOException {
+				dir.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static Path path(String file) {
+		return new File(file).toPath().toAbsolutePath().normalize();
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj;
+
+import java.io.InputStream;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import de.serviceflow.codegenj.Node.Interface;
+import de.serviceflow.codegenj.Node.Interface.Member;
+import de.serviceflow.codegenj.Node.Interface.Member.Annotation;
+import de.serviceflow.codegenj.Node.Interface.Member.Arg;
+import de.serviceflow.codegenj.Node.Interface.Method;
+import de.serviceflow.codegenj.Node.Interface.Property;
+import de.serviceflow.codegenj.Node.Interface.Signal;
+
+/**
+ * Builds the {@link Node} model from introspection XML in a single streaming
+ * pass. The last comment before an element becomes the comment of that
+ * element. Unknown elements and missing required attributes are rejected,
+ * everything else the schema checks is not.
+ * <p>
+ * {@link #stream(InputStream, String, NodeHandler)} hands each node to a
+ * handler while reading, without building the tree.
+ */
+public final class ModelReader {
+	private static XMLInputFactory factory;
+
+	private final XMLStreamReader r;
+	private final NodeHandler handler;
+	private String comment;
+
+	/**
+	 * Receives the nodes of a streamed document in document order.
+	 */
+	public interface NodeHandler {
+		/**
+		 * All interfaces of the node are read, its child nodes follow.
+		 */
+		void interfacesRead(Node node);
+
+		/**
+		 * The node and all its child nodes are read.
+		 */
+		void nodeRead(Node node);
+	}
+
+	private ModelReader(XMLStreamReader r, NodeHandler handler) {
+		this.r = r;
+		this.handler = handler;
+	}
+
+	/**
+	 * @param systemId
+	 *            name of the input in error messages
+	 */
+	public static Node read(InputStream in, String systemId)
+			throws XMLStreamException {
+		return read(in, systemId, null);
+	}
+
+	/**
+	 * Read the document and hand its nodes to the handler. Child nodes are
+	 * not added to their parent. Interfaces must precede the child nodes, as
+	 * the schema requires.
+	 * 
+	 * @param systemId
+	 *            name of the input in error messages
+	 */
+	public static void stream(InputStream in, String systemId,
+			NodeHandler handler) throws XMLStreamException {
+		read(in, systemId, handler);
+	}
+
+	private static Node read(InputStream in, String systemId,
+			NodeHandler handler) throws XMLStreamException {
+		XMLStreamReader r = getFactory().createXMLStreamReader(systemId, in);
+		try {
+			ModelReader reader = new ModelReader(r, handler);
+			if (reader.nextTag() != XMLStreamConstants.START_ELEMENT
+					|| !"node".equals(r.getLocalName())) {
+				throw reader.unexpected();
+			}
+			return reader.readNode();
+		} finally {
+			r.close();
+		}
+	}
+
+	private static synchronized XMLInputFactory getFactory() {
+		if (factory == null) {
+			factory = XMLInputFactory.newFactory();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		}
+		return factory;
+	}
+
+	private Node readNode() throws XMLStreamException {
+		Node node = new Node();
+		node.setComment(takeComment());
+		node.setName(attribute("name"));
+		boolean interfacesRead = false;
+		while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+			String name = r.getLocalName();
+			if ("interface".equals(name) && !interfacesRead) {
+				node.getInterfaces().add(readInterface());
+			} else if ("node".equals(name)) {
+				if (handler == null) {
+					node.getChilds().add(readNode());
+					continue;
+				}
+				if (!interfacesRead) {
+					handler.interfacesRead(node);
+					interfacesRead = true;
+				}
+				readNode();
+			} else {
+				throw unexpected();
+			}
+		}
+		if (handler != null) {
+			if (!interfacesRead) {
+				handler.interfacesRead(node);
+			}
+			handler.nodeRead(node);
+		}
+		return node;
+	}
+
+	private Interface readInterface() throws XMLStreamException {
+		Interface i = new Interface();
+		i.setComment(takeComment());
+		i.setName(required("name"));
+		while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+			String name = r.getLocalName();
+			if ("method".equals(name)) {
+				i.getMethods().add(readMember(new Method()));
+			} else if ("signal".equals(name)) {
+				i.getSignals().add(readMember(new Signal()));
+			} else if ("property".equals(name)) {
+				i.getProperties().add(readProperty());
+			} else if ("annotation".equals(name)) {
+				i.getAnnotations().add(readAnnotation());
+			} else {
+				throw unexpected();
+			}
+		}
+		return i;
+	}
+
+	private <M extends Member> M readMember(M m) throws XMLStreamException {
+		m.setComment(takeComment());
+		m.setName(required("name"));
+		while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+			String name = r.getLocalName();
+			if ("arg".equals(name)) {
+				Arg a = new Arg();
+				a.setComment(takeComment());
+				a.setAttributes(required("name"), required("type"),
+						attribute("direction"));
+				endEmpty();
+				m.getArgs().add(a);
+			} else if ("annotation".equals(name)) {
+				m.getAnnotations().add(readAnnotation());
+			} else {
+				throw unexpected();
+			}
+		}
+		return m;
+	}
+
+	private Property readProperty() throws XMLStreamException {
+		Property p = new Property();
+		p.setComment(takeComment());
+		p.setAttributes(required("name"), attribute("type"),
+				attribute("access"));
+		while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if ("annotation".equals(r.getLocalName())) {
+				p.getAnnotations().add(readAnnotation());
+			} else {
+				throw unexpected();
+			}
+		}
+		return p;
+	}
+
+	private Annotation readAnnotation() throws XMLStreamException {
+		Annotation a = new Annotation();
+		a.setComment(takeComment());
+		a.setAttributes(required("name"), required("value"));
+		endEmpty();
+		return a;
+	}
+
+	/**
+	 * Skip to the end of an element without child elements.
+	 */
+	private void endEmpty() throws XMLStreamException {
+		if (nextTag() != XMLStreamConstants.END_ELEMENT) {
+			throw unexpected();
+		}
+	}
+
+	/**
+	 * Advance to the next start or end tag. Text is ignored, comments are
+	 * kept for the next element.
+	 */
+	private int nextTag() throws XMLStreamException {
+		for (;;) {
+			int event = r.next();
+			switch (event) {
+			case XMLStreamConstants.COMMENT:
+				comment = r.getText();
+				break;
+			case XMLStreamConstants.START_ELEMENT:
+			case XMLStreamConstants.END_ELEMENT:
+			case XMLStreamConstants.END_DOCUMENT:
+				return event;
+			default:
+				break;
+			}
+		}
+	}
+
+	private String takeComment() {
+		String c = comment;
+		comment = null;
+		return c;
+	}
+
+	private String attribute(String name) {
+		return r.getAttributeValue(null, name);
+	}
+
+	/**
+	 * @return value of an attribute the schema requires.
+	 */
+	private String required(String name) throws XMLStreamException {
+		String value = attribute(name);
+		if (value == null) {
+			Location l = r.getLocation();
+			throw new XMLStreamException("Missing attribute '" + name
+					+ "' of element <" + r.getLocalName() + "> in "
+					+ l.getSystemId() + " at line " + l.getLineNumber());
+		}
+		return value;
+	}
+
+	private XMLStreamException unexpected() {
+		Location l = r.getLocation();
+		String what = r.isStartElement() ? "element <" + r.getLocalName()
+				+ ">" : "end of document";
+		return new XMLStreamException("Unexpected " + what + " in "
+				+ l.getSystemId() + " at line " + l.getLineNumber());
+	}
+}
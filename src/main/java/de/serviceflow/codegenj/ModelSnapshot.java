@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.serviceflow.codegenj.Node.Interface;
+import de.serviceflow.codegenj.Node.Interface.Member;
+import de.serviceflow.codegenj.Node.Interface.Member.Annotation;
+import de.serviceflow.codegenj.Node.Interface.Member.Arg;
+import de.serviceflow.codegenj.Node.Interface.Method;
+import de.serviceflow.codegenj.Node.Interface.Property;
+import de.serviceflow.codegenj.Node.Interface.Signal;
+
+/**
+ * Binary snapshot of the model read from an XML file, stored next to it. A
+ * snapshot is used only if it has the current format version and was taken
+ * from an XML file with the same content hash; otherwise the XML file is read
+ * again. Snapshots are read from a memory mapped file.
+ * <p>
+ * Strings are written once, repeated strings as a reference to their first
+ * occurrence.
+ */
+public final class ModelSnapshot {
+	/**
+	 * Increment on any change of the format or the model.
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	public static final String SUFFIX = ".codegenj-snapshot";
+
+	private static final int MAGIC = 0x434a4753;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int NULL = 0;
+	private static final int NEW = 1;
+	private static final int REFERENCE = 2;
+
+	private ModelSnapshot() {
+	}
+
+	public static File fileOf(String xmlfile) {
+		return new File(xmlfile + SUFFIX);
+	}
+
+	/**
+	 * @param hash
+	 *            content hash of the XML file
+	 * @param validated
+	 *            true if only a snapshot of a validated XML file may be used
+	 * @return the model, or null if there is no usable snapshot.
+	 */
+	public static Node load(File file, String hash, boolean validated) {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			throw new Error("Can't read snapshot " + file + ": "
+					+ e.getLocalizedMessage());
+		}
+		try {
+			try {
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+						0, channel.size());
+				Reader r = new Reader(buffer);
+				if (buffer.remaining() < 8 || buffer.getInt() != MAGIC
+						|| buffer.getInt() != FORMAT_VERSION
+						|| !hash.equals(r.string())) {
+					return null;
+				}
+				if (buffer.get() == 0 && validated) {
+					return null;
+				}
+				return r.node();
+			} finally {
+				channel.close();
+			}
+		} catch (IOException e) {
+			throw new Error("Can't read snapshot " + file + ": "
+					+ e.getLocalizedMessage());
+		} catch (RuntimeException e) {
+			return null; // truncated or damaged
+		}
+	}
+
+	/**
+	 * @param hash
+	 *            content hash of the XML file
+	 * @param validated
+	 *            true if the XML file was validated
+	 */
+	public static void save(File file, String hash, boolean validated,
+			Node node) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			Writer w = new Writer(new DataOutputStream(bytes));
+			w.out.writeInt(MAGIC);
+			w.out.writeInt(FORMAT_VERSION);
+			w.string(hash);
+			w.out.writeByte(validated ? 1 : 0);
+			w.node(node);
+			w.out.flush();
+			OutputFile.replace(file.toPath(), bytes.toByteArray());
+		} catch (IOException e) {
+			throw new Error("Can't write snapshot " + file + ": "
+					+ e.getLocalizedMessage());
+		}
+	}
+
+	private static final class Writer {
+		final DataOutputStream out;
+		final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+		Writer(DataOutputStream out) {
+			this.out = out;
+		}
+
+		void node(Node node) throws IOException {
+			string(node.getName());
+			string(node.getComment());
+			out.writeInt(node.getInterfaces().size());
+			for (Interface i : node.getInterfaces()) {
+				string(i.getName());
+				string(i.getComment());
+				members(i.getMethods());
+				members(i.getSignals());
+				out.writeInt(i.getProperties().size());
+				for (Property p : i.getProperties()) {
+					string(p.getName());
+					string(p.getType());
+					string(p.getAccess());
+					string(p.getComment());
+					annotations(p.getAnnotations());
+				}
+				annotations(i.getAnnotations());
+			}
+			out.writeInt(node.getChilds().size());
+			for (Node child : node.getChilds()) {
+				node(child);
+			}
+		}
+
+		void members(List<? extends Member> members) throws IOException {
+			out.writeInt(members.size());
+			for (Member m : members) {
+				string(m.getName());
+				string(m.getComment());
+				out.writeInt(m.getArgs().size());
+				for (Arg a : m.getArgs()) {
+					string(a.getName());
+					string(a.getType());
+					string(a.getDirection());
+					string(a.getComment());
+				}
+				annotations(m.getAnnotations());
+			}
+		}
+
+		void annotations(List<Annotation> annotations) throws IOException {
+			out.writeInt(annotations.size());
+			for (Annotation a : annotations) {
+				string(a.getName());
+				string(a.getValue());
+				string(a.getComment());
+			}
+		}
+
+		void string(String s) throws IOException {
+			if (s == null) {
+				out.writeInt(NULL);
+				return;
+			}
+			Integer index = strings.get(s);
+			if (index != null) {
+				out.writeInt(REFERENCE + index);
+				return;
+			}
+			strings.put(s, strings.size());
+			byte[] bytes = s.getBytes(UTF8);
+			out.writeInt(NEW);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static final class Reader {
+		final ByteBuffer in;
+		final List<String> strings = new ArrayList<String>();
+
+		Reader(ByteBuffer in) {
+			this.in = in;
+		}
+
+		Node node() {
+			Node node = new Node();
+			node.setName(string());
+			node.setComment(string());
+			for (int n = in.getInt(); n > 0; n--) {
+				Interface i = new Interface();
+				i.setName(string());
+				i.setComment(string());
+				for (int k = in.getInt(); k > 0; k--) {
+					i.getMethods().add(member(new Method()));
+				}
+				for (int k = in.getInt(); k > 0; k--) {
+					i.getSignals().add(member(new Signal()));
+				}
+				for (int k = in.getInt(); k > 0; k--) {
+					Property p = new Property();
+					p.setAttributes(string(), string(), string());
+					p.setComment(string());
+					annotations(p.getAnnotations());
+					i.getProperties().add(p);
+				}
+				annotations(i.getAnnotations());
+				node.getInterfaces().add(i);
+			}
+			for (int n = in.getInt(); n > 0; n--) {
+				node.getChilds().add(node());
+			}
+			return node;
+		}
+
+		<M extends Member> M member(M m) {
+			m.setName(string());
+			m.setComment(string());
+			for (int n = in.getInt(); n > 0; n--) {
+				Arg a = new Arg();
+				a.setAttributes(string(), string(), string());
+				a.setComment(string());
+				m.getArgs().add(a);
+			}
+			annotations(m.getAnnotations());
+			return m;
+		}
+
+		void annotations(List<Annotation> annotations) {
+			for (int n = in.getInt(); n > 0; n--) {
+				Annotation a = new Annotation();
+				a.setAttributes(string(), string());
+				a.setComment(string());
+				annotations.add(a);
+			}
+		}
+
+		String string() {
+			int code = in.getInt();
+			if (code == NULL) {
+				return null;
+			}
+			if (code >= REFERENCE) {
+				return strings.get(code - REFERENCE);
+			}
+			if (code != NEW) {
+				throw new IllegalStateException("Invalid string code " + code);
+			}
+			int length = in.getInt();
+			if (length < 0 || length > in.remaining()) {
+				throw new IllegalStateException("Invalid string length "
+						+ length);
+			}
+			byte[] bytes = new byte[length];
+			in.get(bytes);
+			String s = new String(bytes, UTF8);
+			strings.add(s);
+			return s;
+		}
+	}
+}
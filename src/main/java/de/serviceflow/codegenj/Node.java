@@ -16,15 +16,13 @@
 package de.serviceflow.codegenj;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.xml.bind.annotation.XmlAttribute;
-import javax.xml.bind.annotation.XmlElement;
-import javax.xml.bind.annotation.XmlRootElement;
-import javax.xml.namespace.QName;
+import de.serviceflow.codegenj.Node.Interface.Member.Annotation;
 
 /**
  * D-Bus Introspection Data Format.
@@ -66,79 +64,311 @@ import javax.xml.namespace.QName;
  */
 
 /**
- * Root element of Unmashall structure, the object that was introspected. This
- * stucture is filled by JAX-B parser.
+ * Root element of the introspection data, the object that was introspected.
+ * This structure is filled by the {@link ModelReader} and frozen with
+ * {@link #freeze()} before code is generated from it.
  */
-@XmlRootElement
 public class Node extends ProcessingObjective {
 
-
-	@XmlAttribute(name = "name")
 	private String name;
 
-	@XmlElement(name = "interface")
-	private List<Node.Interface> interfaces;
+	private List<Node.Interface> interfaces = new ArrayList<Node.Interface>();
+
+	private List<Node> childs = new ArrayList<Node>();
+
+	private Map<String, Interface> interfaceIndex;
 
-	@XmlElement(name = "node")
-	private List<Node> childs;
+	private boolean frozen = false;
 
 	public String getName() {
 		return name;
 	}
 
 	public List<Node.Interface> getInterfaces() {
-		return interfaces != null ? interfaces : new ArrayList<Node.Interface>();
+		return interfaces;
 	}
 
 	public List<Node> getChilds() {
-		return childs != null ? childs : new ArrayList<Node>();
+		return childs;
+	}
+
+	/**
+	 * @return the interface of this node with the given name, or null.
+	 */
+	public Interface getInterface(String name) {
+		if (interfaceIndex != null) {
+			return interfaceIndex.get(name);
+		}
+		for (Interface i : interfaces) {
+			if (name.equals(i.getName())) {
+				return i;
+			}
+		}
+		return null;
 	}
 
-	private Map<Interface,String> interfaceCollectorMap = new HashMap<Interface,String>();
+	public boolean isFrozen() {
+		return frozen;
+	}
 
+	/**
+	 * Make the tree read-only once it is read: the lists of all elements
+	 * become unmodifiable, interfaces are indexed by name, annotations by name,
+	 * and the collector links of all CollectorAPI annotations are resolved
+	 * across the tree and become unmodifiable too. Does nothing if the tree is
+	 * frozen already.
+	 */
+	public void freeze() {
+		if (frozen) {
+			return;
+		}
+		Map<String, Interface> tree = new HashMap<String, Interface>();
+		freezeTree(tree);
+		resolveTree(tree);
+		freezeLinksTree();
+	}
+
+	private void freezeTree(Map<String, Interface> tree) {
+		freezeInterfaces();
+		for (Interface i : interfaces) {
+			if (!tree.containsKey(i.getName())) {
+				tree.put(i.getName(), i);
+			}
+		}
+		childs = Collections.unmodifiableList(childs);
+		frozen = true;
+		for (Node c : childs) {
+			c.freezeTree(tree);
+		}
+	}
+
+	private void resolveTree(Map<String, Interface> tree) {
+		resolveCollectorLinks(tree);
+		for (Node c : childs) {
+			c.resolveTree(tree);
+		}
+	}
+
+	private void freezeLinksTree() {
+		freezeCollectorLinks();
+		for (Node c : childs) {
+			c.freezeLinksTree();
+		}
+	}
+
+	/**
+	 * Freeze the interfaces of this node only, while its child nodes are still
+	 * read.
+	 */
+	void freezeInterfaces() {
+		Map<String, Interface> index = new HashMap<String, Interface>();
+		for (Interface i : interfaces) {
+			i.freeze();
+			if (!index.containsKey(i.getName())) {
+				index.put(i.getName(), i);
+			}
+		}
+		interfaces = Collections.unmodifiableList(interfaces);
+		interfaceIndex = index;
+	}
+
+	/**
+	 * Make the collector links of this node and its interfaces unmodifiable,
+	 * once all links to them are resolved.
+	 */
+	void freezeCollectorLinks() {
+		interfaceCollectorMap = Collections
+				.unmodifiableMap(interfaceCollectorMap);
+		for (Interface i : interfaces) {
+			i.interfaceCollectorMap = Collections
+					.unmodifiableMap(i.interfaceCollectorMap);
+		}
+	}
+
+	/**
+	 * Link the interfaces named by the CollectorAPI annotations of this node.
+	 * A target interface is searched in the same node first, then in the
+	 * tree.
+	 * 
+	 * @param tree
+	 *            interfaces of the tree by name, or null to search the node
+	 *            only
+	 */
+	void resolveCollectorLinks(Map<String, Interface> tree) {
+		for (Interface i : interfaces) {
+			for (Annotation a : i
+					.getAnnotations("de.serviceflow.codegenj.CollectorAPI")) {
+				String mname = a.getValue();
+				int index = mname.indexOf('#');
+				if (index < 0) {
+					throw new Error(
+							"Value of annotation de.serviceflow.codegenj.CollectorAPI must be 'class#method' at interface "
+									+ i.getName());
+				}
+				String targettemplate = mname.substring(0, index);
+
+				String templateclassname = "de.serviceflow.codegenj.ObjectManager";
+				if (templateclassname.equals(targettemplate)) {
+					interfaceCollectorMap.put(i, a.getValue());
+					continue;
+				}
+				Interface i2 = findInterface(targettemplate, tree);
+				if (i2 == null) {
+					throw new Error(
+							"Value of annotation de.serviceflow.codegenj.CollectorAPI contains a unkown target interface class at interface "
+									+ i.getName() + ": " + targettemplate);
+				}
+				i2.getInterfaceCollectorMap().put(i, a.getValue());
+			}
+			for (Interface.Property p : i.getProperties()) {
+				for (Annotation a : p
+						.getAnnotations("de.serviceflow.codegenj.CollectorAPI")) {
+					if (!"read".equals(p.getAccess())) {
+						throw new Error(
+								"property-access at annotation de.serviceflow.codegenj.CollectorAPI must be 'read' at interface "
+										+ i.getName()
+										+ " at property "
+										+ p.getName());
+					}
+					if (!"ao".equals(p.getType())) {
+						throw new Error(
+								"property-type at annotation de.serviceflow.codegenj.CollectorAPI must be 'ao' at interface "
+										+ i.getName()
+										+ " at property "
+										+ p.getName());
+					}
+					String mname = a.getValue();
+					int index = mname.indexOf('#');
+					if (index >= 0) {
+						throw new Error(
+								"Value of annotation de.serviceflow.codegenj.CollectorAPI must be 'interfacename' at interface "
+										+ i.getName()
+										+ " at property "
+										+ p.getName());
+					}
+
+					String targettemplate = mname;
+					Interface i2 = findInterface(targettemplate, tree);
+					if (i2 == null) {
+						throw new Error(
+								"Value of annotation de.serviceflow.codegenj.CollectorAPI contains a unkown target interface class at interface "
+										+ i.getName() + ": " + targettemplate);
+					}
+					i.getInterfaceCollectorMap().put(i2,
+							i.getName() + "#*get" + p.getName());
+				}
+			}
+		}
+	}
+
+	private Interface findInterface(String name, Map<String, Interface> tree) {
+		Interface i = getInterface(name);
+		if (i == null && tree != null) {
+			i = tree.get(name);
+		}
+		return i;
+	}
+
+	/**
+	 * Index annotations by name, in their order.
+	 */
+	static Map<String, List<Annotation>> indexAnnotations(
+			List<Annotation> annotations) {
+		Map<String, List<Annotation>> index = new HashMap<String, List<Annotation>>();
+		for (Annotation a : annotations) {
+			List<Annotation> l = index.get(a.getName());
+			if (l == null) {
+				l = new ArrayList<Annotation>(1);
+				index.put(a.getName(), l);
+			}
+			l.add(a);
+		}
+		for (Map.Entry<String, List<Annotation>> e : index.entrySet()) {
+			e.setValue(Collections.unmodifiableList(e.getValue()));
+		}
+		return index;
+	}
+
+	static List<Annotation> findAnnotations(
+			List<Annotation> annotations,
+			Map<String, List<Annotation>> index, String name) {
+		if (index != null) {
+			List<Annotation> l = index.get(name);
+			return l != null ? l : Collections.<Annotation> emptyList();
+		}
+		List<Annotation> l = new ArrayList<Annotation>(1);
+		for (Annotation a : annotations) {
+			if (name.equals(a.getName())) {
+				l.add(a);
+			}
+		}
+		return l;
+	}
+
+	private Map<Interface,String> interfaceCollectorMap = new LinkedHashMap<Interface,String>();
+
+	/**
+	 * @return collector links of the ObjectManager, in input order.
+	 */
 	public Map<Interface,String> getInterfaceCollectorMap() {
 		return interfaceCollectorMap;
 	}
 
-	
-	private Iterator<Interface> i_node_interface = null;
-	
-	@Override
-	public ProcessingObjective getProcessingObjective(String name2) {
-		if ("interface".equals(name2))
-			return i_node_interface.next();
-		return null;
+	void setName(String name) {
+		this.name = name;
 	}
 
-	@Override
-	public void startScan() {
-		i_node_interface = getInterfaces().iterator();	
+	/**
+	 * @return a frozen copy of this node with other ObjectManager collector
+	 *         links, e.g. the links of all nodes of its tree. This node is not
+	 *         changed.
+	 */
+	Node withCollectorLinks(Map<Interface,String> links) {
+		Node n = new Node();
+		n.name = name;
+		n.interfaces = interfaces;
+		n.childs = childs;
+		n.interfaceIndex = interfaceIndex;
+		n.interfaceCollectorMap = Collections.unmodifiableMap(links);
+		n.frozen = true;
+		return n;
 	}
 
-	@Override
-	public void endScan() {
-		i_node_interface = null;
+	/**
+	 * Drop the interfaces once their files are generated. The collector links
+	 * of the node keep only the names of their interfaces, in their current
+	 * order.
+	 */
+	void releaseInterfaces() {
+		Map<Interface,String> links = new LinkedHashMap<Interface,String>();
+		for (Map.Entry<Interface,String> e : interfaceCollectorMap.entrySet()) {
+			Interface i = new Interface();
+			i.setName(e.getKey().getName());
+			links.put(i, e.getValue());
+		}
+		interfaceCollectorMap = Collections.unmodifiableMap(links);
+		interfaces = Collections.emptyList();
+		interfaceIndex = Collections.emptyMap();
 	}
-	
+
 	/**
 	 * An interface to invoke a method call on, or that a signal is emitted
 	 * from.
 	 */
 	public static class Interface extends ProcessingObjective {
 
-		@XmlElement(name = "method")
-		private List<Interface.Method> methods;
+		private List<Interface.Method> methods = new ArrayList<Interface.Method>();
+
+		private List<Interface.Signal> signals = new ArrayList<Interface.Signal>();
+
+		private List<Interface.Property> properties = new ArrayList<Interface.Property>();
 
-		@XmlElement(name = "signal")
-		private List<Interface.Signal> signals;
+		private List<Member.Annotation> annotations = new ArrayList<Member.Annotation>();
 
-		@XmlElement(name = "property")
-		private List<Interface.Property> properties;
+		private Map<String, List<Member.Annotation>> annotationIndex;
 
-		@XmlElement(name = "annotation")
-		private List<Member.Annotation> annotations;
+		private boolean skeleton;
 		
-		@XmlAttribute(name = "name")
 		private String name;
 
 		public String getName() {
@@ -146,172 +376,152 @@ public class Node extends ProcessingObjective {
 		}
 
 		public List<Interface.Method> getMethods() {
-			return methods != null ? methods : new ArrayList<Interface.Method>();
+			return methods;
 		}
 
 		public List<Interface.Signal> getSignals() {
-			return signals != null ? signals : new ArrayList<Interface.Signal>();
+			return signals;
 		}
 
 		public List<Interface.Property> getProperties() {
-			return properties != null ? properties : new ArrayList<Interface.Property>();
+			return properties;
 		}
 		
 		public List<Member.Annotation> getAnnotations() {
-			return annotations != null ? annotations : new ArrayList<Member.Annotation>();
+			return annotations;
 		}
 
-		
-		private Map<Interface,String> interfaceCollectorMap = new HashMap<Interface,String>();
-
-		public Map<Interface,String> getInterfaceCollectorMap() {
-			return interfaceCollectorMap;
+		/**
+		 * @return the annotations with the given name, in their order.
+		 */
+		public List<Member.Annotation> getAnnotations(String name) {
+			return findAnnotations(annotations, annotationIndex, name);
 		}
 
-		
-		private Iterator<Method> i_interface_method = null;
-		private Iterator<Property> i_interface_property = null;
-		
-		@Override
-		public ProcessingObjective getProcessingObjective(String name2) {
-			if ("method".equals(name2))
-				return i_interface_method.next();
-			else if ("property".equals(name2))
-				return i_interface_property.next();
-			return null;
+		/**
+		 * @return true if the interface is annotated with
+		 *         de.serviceflow.codegenj.SkeletonAPI
+		 */
+		public boolean isSkeleton() {
+			if (annotationIndex != null) {
+				return skeleton;
+			}
+			return !getAnnotations("de.serviceflow.codegenj.SkeletonAPI")
+					.isEmpty();
 		}
 
-		@Override
-		public void startScan() {
-			i_interface_method = getMethods().iterator();
-			i_interface_property = getProperties().iterator();
+		void freeze() {
+			for (Member m : methods) {
+				m.freeze();
+			}
+			for (Member m : signals) {
+				m.freeze();
+			}
+			for (Property p : properties) {
+				p.freeze();
+			}
+			methods = Collections.unmodifiableList(methods);
+			signals = Collections.unmodifiableList(signals);
+			properties = Collections.unmodifiableList(properties);
+			annotations = Collections.unmodifiableList(annotations);
+			annotationIndex = indexAnnotations(annotations);
+			skeleton = annotationIndex
+					.containsKey("de.serviceflow.codegenj.SkeletonAPI");
 		}
 
-		@Override
-		public void endScan() {
-			i_interface_method = null;
-			i_interface_property = null;
+		
+		private Map<Interface,String> interfaceCollectorMap = new LinkedHashMap<Interface,String>();
+
+		/**
+		 * @return collector links of this interface, in input order.
+		 */
+		public Map<Interface,String> getInterfaceCollectorMap() {
+			return interfaceCollectorMap;
 		}
 
-		
-		
-		
-		
+		void setName(String name) {
+			this.name = name;
+		}
 
 		/**
 		 * child element
 		 */
 		public static class Method extends Member {
-
-			@Override
-			public ProcessingObjective getProcessingObjective(String name2) {
-				// TODO Auto-generated method stub
-				return null;
-			}
-
-			@Override
-			public void startScan() {
-				// TODO Auto-generated method stub
-				
-			}
-
-			@Override
-			public void endScan() {
-				// TODO Auto-generated method stub
-				
-			}
 		}
 
 		/**
 		 * child element
 		 */
 		public static class Signal extends Member {
-
-			@Override
-			public ProcessingObjective getProcessingObjective(String name2) {
-				// TODO Auto-generated method stub
-				return null;
-			}
-
-			@Override
-			public void startScan() {
-				// TODO Auto-generated method stub
-				
-			}
-
-			@Override
-			public void endScan() {
-				// TODO Auto-generated method stub
-				
-			}
 		}
 
 		/**
 		 * child element
 		 */
 		public static abstract class Member extends ProcessingObjective {
-			@XmlAttribute(name = "name")
 			private String name;
 
 			public String getName() {
 				return name;
 			}
 
-			@XmlElement(name = "arg")
-			private List<Member.Arg> args;
+			private List<Member.Arg> args = new ArrayList<Member.Arg>();
 
 			public List<Member.Arg> getArgs() {
-				return args != null ? args : new ArrayList<Member.Arg>();
+				return args;
 			}
 
-			@XmlElement(name = "annotation")
-			private List<Member.Annotation> annotations;
+			private List<Member.Annotation> annotations = new ArrayList<Member.Annotation>();
+
+			private Map<String, List<Member.Annotation>> annotationIndex;
 
 			public List<Member.Annotation> getAnnotations() {
-				return annotations != null ? annotations : new ArrayList<Member.Annotation>();
+				return annotations;
+			}
+
+			/**
+			 * @return the annotations with the given name, in their order.
+			 */
+			public List<Member.Annotation> getAnnotations(String name) {
+				return findAnnotations(annotations, annotationIndex, name);
+			}
+
+			void freeze() {
+				args = Collections.unmodifiableList(args);
+				annotations = Collections.unmodifiableList(annotations);
+				annotationIndex = indexAnnotations(annotations);
+			}
+
+			void setName(String name) {
+				this.name = name;
 			}
 
 			/**
 			 * child element
 			 */
 			public static class Arg extends ProcessingObjective {
-				@XmlAttribute(name = "name")
 				private String name;
 
 				public String getName() {
 					return name;
 				}
 
-				@XmlAttribute(name = "type")
 				private String type;
 
 				public String getType() {
 					return type;
 				}
 
-				@XmlAttribute(name = "direction")
 				private String direction;
 
 				public String getDirection() {
 					return direction;
 				}
 
-				@Override
-				public ProcessingObjective getProcessingObjective(String name2) {
-					// TODO Auto-generated method stub
-					return null;
-				}
-
-				@Override
-				public void startScan() {
-					// TODO Auto-generated method stub
-					
-				}
-
-				@Override
-				public void endScan() {
-					// TODO Auto-generated method stub
-					
+				void setAttributes(String name, String type, String direction) {
+					this.name = name;
+					this.type = type;
+					this.direction = direction;
 				}
 			}
 
@@ -319,36 +529,21 @@ public class Node extends ProcessingObjective {
 			 * child element
 			 */
 			public static class Annotation extends ProcessingObjective {
-				@XmlAttribute(name = "name")
 				private String name;
 
 				public String getName() {
 					return name;
 				}
 
-				@XmlAttribute(name = "value")
 				private String value;
 
 				public String getValue() {
 					return value;
 				}
 
-				@Override
-				public ProcessingObjective getProcessingObjective(String name2) {
-					// TODO Auto-generated method stub
-					return null;
-				}
-
-				@Override
-				public void startScan() {
-					// TODO Auto-generated method stub
-					
-				}
-
-				@Override
-				public void endScan() {
-					// TODO Auto-generated method stub
-					
+				void setAttributes(String name, String value) {
+					this.name = name;
+					this.value = value;
 				}
 			}
 
@@ -358,52 +553,48 @@ public class Node extends ProcessingObjective {
 		 * child element
 		 */
 		public static class Property extends ProcessingObjective {
-			@XmlAttribute(name = "name")
 			private String name;
 
 			public String getName() {
 				return name;
 			}
 
-			@XmlAttribute(name = "type")
 			private String type;
 
 			public String getType() {
 				return type;
 			}
 
-			@XmlAttribute(name = "access")
 			private String access;
 
 			public String getAccess() {
 				return access;
 			}
 
-			@XmlElement(name = "annotation")
-			private List<Member.Annotation> annotations;
+			private List<Member.Annotation> annotations = new ArrayList<Member.Annotation>();
+
+			private Map<String, List<Member.Annotation>> annotationIndex;
 
 			public List<Member.Annotation> getAnnotations() {
-				return annotations != null ? annotations : new ArrayList<Member.Annotation>();
+				return annotations;
 			}
 
-
-			@Override
-			public void startScan() {
-				// TODO Auto-generated method stub
-				
+			/**
+			 * @return the annotations with the given name, in their order.
+			 */
+			public List<Member.Annotation> getAnnotations(String name) {
+				return findAnnotations(annotations, annotationIndex, name);
 			}
 
-			@Override
-			public void endScan() {
-				// TODO Auto-generated method stub
-				
+			void freeze() {
+				annotations = Collections.unmodifiableList(annotations);
+				annotationIndex = indexAnnotations(annotations);
 			}
 
-
-			@Override
-			public ProcessingObjective getProcessingObjective(String name2) {
-				// TODO Auto-generated method stub
-				return null;
+			void setAttributes(String name, String type, String access) {
+				this.name = name;
+				this.type = type;
+				this.access = access;
 			}
 		}
 
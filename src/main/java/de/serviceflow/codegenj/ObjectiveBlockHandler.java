@@ -18,15 +18,5 @@ package de.serviceflow.codegenj;
 import java.io.PrintWriter;
 
 public abstract class ObjectiveBlockHandler {
-	private String content;
-
-	void setContent(String content) {
-		this.content = content;
-	}
-
-	protected String getContent() {
-		return content;
-	}
-
 	public abstract void process(Block p, ProcessingObjective o, String blockArg, PrintWriter w);
 }
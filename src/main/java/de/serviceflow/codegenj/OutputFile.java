@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Generated file. Output is rendered into memory and written by
+ * {@link #commit()} only if it differs from the existing file, so unchanged
+ * files keep their modification time and don't trigger rebuilds. Changed files
+ * are replaced by an atomic rename, readers never see a partially written
+ * file.
+ */
+public class OutputFile extends PrintWriter {
+	private final File file;
+
+	public OutputFile(String path) {
+		super(new StringWriter());
+		this.file = new File(path);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the rendered content.
+	 */
+	public byte[] getContent() {
+		flush();
+		return out.toString().getBytes();
+	}
+
+	/**
+	 * Write the rendered content if the file doesn't exist or has a different
+	 * content.
+	 * 
+	 * @return true if the file was written.
+	 */
+	public boolean commit() {
+		byte[] content = getContent();
+		Path target = file.toPath();
+		try {
+			if (Files.isRegularFile(target)
+					&& Files.size(target) == content.length
+					&& Arrays.equals(Files.readAllBytes(target), content)) {
+				if (Trace.isEnabled(Trace.Level.TEMPLATE)) {
+					Trace.getListener().detail("unchanged " + file);
+				}
+				return false;
+			}
+			replace(target, content);
+		} catch (IOException e) {
+			throw new Error("Can't create output file: " + file + ": "
+					+ e.getLocalizedMessage());
+		}
+		return true;
+	}
+
+	/**
+	 * Replace the content of a file by an atomic rename of a temporary file.
+	 */
+	static void replace(Path target, byte[] content) throws IOException {
+		Path dir = target.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		// java.io creates the file with default permissions
+		Path tmp = File.createTempFile("." + target.getFileName(), ".tmp",
+				dir.toFile()).toPath();
+		try {
+			Files.write(tmp, content);
+			try {
+				Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+}
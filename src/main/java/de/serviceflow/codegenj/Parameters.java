@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable scope of template parameters. Scopes are chained (node, interface,
+ * member, ...); a lookup walks from the innermost scope to the outermost. A
+ * block iteration extends the scope of its parent instead of modifying it, so
+ * parameters never leak between iterations and scopes can be shared between
+ * threads.
+ * <p>
+ * Values which are expensive to compute can be registered as {@link Lazy}
+ * suppliers; they are computed when a template references them for the first
+ * time.
+ */
+public final class Parameters {
+	public static final Parameters EMPTY = new Parameters(null,
+			Collections.<String, Object> emptyMap());
+
+	private final Parameters parent;
+	private final Map<String, Object> values;
+
+	private Parameters(Parameters parent, Map<String, Object> values) {
+		this.parent = parent;
+		this.values = values;
+	}
+
+	/**
+	 * @return the value of the innermost scope defining the parameter, or null.
+	 */
+	public String get(String name) {
+		for (Parameters p = this; p != null; p = p.parent) {
+			Object value = p.values.get(name);
+			if (value instanceof Lazy) {
+				return (String) ((Lazy<?>) value).get();
+			} else if (value != null) {
+				return (String) value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return a new scope with one parameter on top of this scope.
+	 */
+	public Parameters with(String name, String value) {
+		return extend().put(name, value).build();
+	}
+
+	/**
+	 * @return builder for a new scope on top of this scope.
+	 */
+	public Builder extend() {
+		return new Builder(this);
+	}
+
+	public static final class Builder {
+		private final Parameters parent;
+		private final Map<String, Object> values = new HashMap<String, Object>();
+
+		private Builder(Parameters parent) {
+			this.parent = parent;
+		}
+
+		/**
+		 * Null values are ignored, the parameter remains undefined in this
+		 * scope.
+		 */
+		public Builder put(String name, String value) {
+			if (value != null) {
+				values.put(name, value);
+			}
+			return this;
+		}
+
+		/**
+		 * Register a value computed on first use.
+		 */
+		public Builder put(String name, Lazy<String> value) {
+			values.put(name, value);
+			return this;
+		}
+
+		public Parameters build() {
+			return new Parameters(parent, new HashMap<String, Object>(values));
+		}
+	}
+
+	/**
+	 * Memoized supplier of a value. {@link #compute()} is called at most once.
+	 */
+	public static abstract class Lazy<T> {
+		private volatile T value;
+
+		protected abstract T compute();
+
+		public final T get() {
+			T v = value;
+			if (v == null) {
+				synchronized (this) {
+					v = value;
+					if (v == null) {
+						value = v = compute();
+					}
+				}
+			}
+			return v;
+		}
+	}
+}
@@ -15,30 +15,10 @@
  */
 package de.serviceflow.codegenj;
 
-import java.io.PrintWriter;
-
+/**
+ * Element of the introspection data that templates are rendered for.
+ */
 public abstract class ProcessingObjective {
-	public void process(Block p, String blockArg, PrintWriter w,
-			String blockContent) {
-		ObjectiveBlockHandler abp = CodegenJ.getInstance().findProcessing(
-				getClass().getName());
-		if (abp == null) {
-			throw new Error("No block processing found for "
-					+ getClass().getName());
-		}
-
-		abp.setContent(blockContent);
-		System.out.println("***** process eval " + getClass().getName() + " "
-				+ blockArg);
-		abp.process(p, this, blockArg, w);
-	}
-
-	public abstract ProcessingObjective getProcessingObjective(String name2);
-
-	public abstract void startScan();
-
-	public abstract void endScan();
-
 	public String getComment() {
 		return comment;
 	}
@@ -16,26 +16,35 @@
 package de.serviceflow.codegenj;
 
 import java.io.PrintWriter;
-import java.util.Map;
 
 import de.serviceflow.codegenj.Node.Interface;
 
 public class TemplateBlock extends Block {
+	private final CompiledTemplate t;
 
-	public TemplateBlock(Interface interfaceDef, Map<String, String> parameters, TemplateParser t, PrintWriter w) {
-		super(null, interfaceDef, parameters, t, w);
+	public TemplateBlock(Interface interfaceDef, Parameters parameters, CompiledTemplate t, PrintWriter w) {
+		super(null, interfaceDef, parameters, w, t.getRoot());
+		this.t = t;
 	}
 
-	public TemplateBlock(Node nodeDef, Map<String, String> parameters, TemplateParser t, PrintWriter w) {
-		super(null, nodeDef, parameters, t, w);
+	public TemplateBlock(Node nodeDef, Parameters parameters, CompiledTemplate t, PrintWriter w) {
+		super(null, nodeDef, parameters, w, t.getRoot());
+		this.t = t;
 	}
 
-	public final boolean process() {
-		System.out.println("----- "+super.getTemplate().location());
-		return process(false);
+	public final void process() {
+		if (!Trace.isEnabled(Trace.Level.TEMPLATE)) {
+			render(getParameters());
+			return;
+		}
+		Trace.getListener().templateStart(t.getTemplatePath());
+		long start = System.nanoTime();
+		render(getParameters());
+		Trace.getListener().templateEnd(t.getTemplatePath(),
+				System.nanoTime() - start);
 	}
 
-	protected void printResult(String token) {
-		getWriter().print(parameterSubstitution(token)); 
+	public CompiledTemplate getTemplate() {
+		return t;
 	}
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide cache of compiled templates, keyed by resource path. Each
+ * template is loaded and compiled once per JVM. Templates precompiled at build
+ * time by the {@link TemplateSourceCompiler} are used without reading the
+ * resource. {@link #revalidate()} reloads the cached resources and recompiles
+ * those whose content hash changed, so a long-running process picks up
+ * modified templates. Templates found in one of the
+ * {@link #setTemplateDirectories(List) template directories} replace the
+ * resources of the same path.
+ */
+public final class TemplateCache {
+	private static final ConcurrentMap<String, Entry> templates = new ConcurrentHashMap<String, Entry>();
+	private static volatile List<File> directories = Collections.emptyList();
+
+	private TemplateCache() {
+	}
+
+	public static CompiledTemplate get(String path) {
+		Entry e = templates.get(path);
+		if (e == null) {
+			synchronized (templates) {
+				e = templates.get(path);
+				if (e == null) {
+					e = load(path);
+					templates.put(path, e);
+				}
+			}
+		}
+		return e.template;
+	}
+
+	/**
+	 * @return content hash of the cached template, loading it if necessary.
+	 */
+	public static String getContentHash(String path) {
+		get(path);
+		return templates.get(path).hash;
+	}
+
+	/**
+	 * Reload all cached templates and recompile those with changed content.
+	 * 
+	 * @return true if at least one template changed.
+	 */
+	public static boolean revalidate() {
+		boolean changed = false;
+		synchronized (templates) {
+			for (String path : templates.keySet()) {
+				CharBuffer content = read(path);
+				if (!hash(content).equals(templates.get(path).hash)) {
+					templates.put(path, compile(path, content));
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+	public static void clear() {
+		templates.clear();
+	}
+
+	/**
+	 * Set the directories searched for templates before the class path, in
+	 * order. Cached templates are reloaded by the next {@link #revalidate()}.
+	 */
+	public static void setTemplateDirectories(List<File> dirs) {
+		directories = Collections.unmodifiableList(new ArrayList<File>(dirs));
+	}
+
+	public static List<File> getTemplateDirectories() {
+		return directories;
+	}
+
+	private static Entry load(String path) {
+		Entry e = findFile(path) == null ? loadPrecompiled(path) : null;
+		return e != null ? e : compile(path, read(path));
+	}
+
+	/**
+	 * @return the template file replacing the resource, or null.
+	 */
+	private static File findFile(String path) {
+		for (File dir : directories) {
+			File f = new File(dir, path);
+			if (f.isFile()) {
+				return f;
+			}
+		}
+		return null;
+	}
+
+	private static Entry loadPrecompiled(String path) {
+		try {
+			Class<?> c = Class.forName(TemplateSourceCompiler.className(path));
+			return new Entry((CompiledTemplate) c.getField("TEMPLATE").get(
+					null), (String) c.getField("SOURCE_HASH").get(null));
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (ReflectiveOperationException e) {
+			throw new Error("Internal error", e);
+		}
+	}
+
+	private static Entry compile(String path, CharBuffer content) {
+		return new Entry(TemplateCompiler.compile(path, content.array(),
+				content.limit()), hash(content));
+	}
+
+	private static String hash(CharBuffer content) {
+		return ContentHash.of(content.array(), 0, content.limit());
+	}
+
+	private static CharBuffer read(String path) {
+		try {
+			File f = findFile(path);
+			InputStream in = f != null ? new FileInputStream(f)
+					: TemplateCache.class.getResourceAsStream("/" + path);
+			if (in == null) {
+				throw new Error("Template not found: " + path);
+			}
+			Reader r = new InputStreamReader(in);
+			try {
+				CharBuffer buffer = CharBuffer.allocate(8192);
+				while (r.read(buffer) >= 0) {
+					if (!buffer.hasRemaining()) {
+						CharBuffer b = CharBuffer.allocate(buffer.capacity() * 2);
+						buffer.flip();
+						b.put(buffer);
+						buffer = b;
+					}
+				}
+				buffer.flip();
+				return buffer;
+			} finally {
+				r.close();
+			}
+		} catch (IOException e) {
+			throw new Error("Can't read template " + path + ": "
+					+ e.getLocalizedMessage());
+		}
+	}
+
+	private static final class Entry {
+		private final CompiledTemplate template;
+		private final String hash;
+
+		private Entry(CompiledTemplate template, String hash) {
+			this.template = template;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles the token stream of a {@link TemplateParser} into an immutable
+ * {@link TemplateNode} tree. Block bodies are tokenized only once, no matter
+ * how often they are rendered later.
+ */
+public final class TemplateCompiler {
+	private static final String LINE_SEPARATOR = System
+			.getProperty("line.separator");
+
+	private final TemplateParser t;
+
+	private TemplateCompiler(TemplateParser t) {
+		this.t = t;
+	}
+
+	public static CompiledTemplate compile(String path) {
+		return compile(new TemplateParser(path));
+	}
+
+	public static CompiledTemplate compile(String path, char[] buffer,
+			int length) {
+		return compile(new TemplateParser(path, buffer, length));
+	}
+
+	private static CompiledTemplate compile(TemplateParser t) {
+		String path = t.getTemplatePath();
+		t.open();
+		try {
+			return new CompiledTemplate(path,
+					new TemplateCompiler(t).compileBlock(null));
+		} finally {
+			t.close();
+		}
+	}
+
+	/**
+	 * @param blockToken
+	 *            the block command that opened the block, or null for the
+	 *            template itself.
+	 * @return the block body.
+	 */
+	private TemplateNode compileBlock(String blockToken) {
+		List<TemplateNode> nodes = new ArrayList<TemplateNode>();
+		StringBuilder text = new StringBuilder();
+		boolean inBlockSyntax = false;
+		int tokenType;
+
+		while ((tokenType = t.next()) != TemplateParser.EOF) {
+			if (tokenType == TemplateParser.EOL) {
+				text.append(LINE_SEPARATOR);
+			} else if (tokenType == TemplateParser.BLOCK) {
+				inBlockSyntax = !inBlockSyntax;
+			} else if (inBlockSyntax) {
+				inBlockSyntax = !inBlockSyntax;
+				String token = new String(t.getBuffer(), t.getTokenStart(),
+						t.getTokenEnd() - t.getTokenStart());
+				if ("end".equals(token)) {
+					if (blockToken == null) {
+						throw new Error("Unexpected end of block at "
+								+ t.location());
+					}
+					flushText(text, nodes);
+					return sequence(nodes);
+				}
+
+				String[] args = token.split("\\s+");
+				if (args.length < 1)
+					throw new Error("Block Command with no args at "
+							+ t.location() + ": '" + token + "'");
+				String blockType = args[0];
+
+				if ("for".equals(blockType)) {
+					if (args.length != 2) {
+						throw new Error("for block argument invalid: '"
+								+ token + "' at " + t.location());
+					}
+					flushText(text, nodes);
+					nodes.add(new TemplateNode.For(args[1], compileBlock(token)));
+				} else if ("case".equals(blockType)) {
+					if (args.length != 2) {
+						throw new Error("case block argument invalid: '"
+								+ token + "' at " + t.location());
+					}
+					flushText(text, nodes);
+					nodes.add(new TemplateNode.Case(args[1], compileBlock(token)));
+				} else {
+					throw new Error("Block type unknown: '" + blockType
+							+ "' at " + t.location());
+				}
+			} else {
+				compileText(t.getBuffer(), t.getTokenStart(), t.getTokenEnd(),
+						text, nodes);
+			}
+		}
+
+		if (blockToken != null) {
+			throw new Error("Unexpected EOF in child block '" + blockToken
+					+ "', " + t.location());
+		}
+		flushText(text, nodes);
+		return sequence(nodes);
+	}
+
+	/**
+	 * Split a text token into literal text and parameter slots.
+	 */
+	private void compileText(char[] buffer, int from, int to,
+			StringBuilder text, List<TemplateNode> nodes) {
+		final int n = TemplateParser.PARAMETER_TOKEN.length();
+		int start;
+		while ((start = indexOfParameterToken(buffer, from, to)) >= 0) {
+			int end = indexOfParameterToken(buffer, start + n, to);
+			if (end < 0) {
+				break; // unterminated reference is literal text
+			}
+			text.append(buffer, from, start - from);
+			flushText(text, nodes);
+			nodes.add(new TemplateNode.Parameter(new String(buffer, start + n,
+					end - start - n)));
+			from = end + n;
+		}
+		text.append(buffer, from, to - from);
+	}
+
+	private static int indexOfParameterToken(char[] buffer, int from, int to) {
+		for (int i = from; i + 2 < to; i++) {
+			if (buffer[i] == '$' && buffer[i + 1] == '$' && buffer[i + 2] == '$') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void flushText(StringBuilder text, List<TemplateNode> nodes) {
+		if (text.length() > 0) {
+			nodes.add(new TemplateNode.Text(text.toString()));
+			text.setLength(0);
+		}
+	}
+
+	private TemplateNode sequence(List<TemplateNode> nodes) {
+		return nodes.size() == 1 ? nodes.get(0) : new TemplateNode.Sequence(
+				nodes);
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable node of a compiled template. Nodes are created once by the
+ * {@link TemplateCompiler}, or by a renderer class generated with the
+ * {@link TemplateSourceCompiler}, and rendered for each block iteration.
+ */
+public abstract class TemplateNode {
+
+	/**
+	 * Render this node into the writer of the given block.
+	 */
+	public abstract void render(Block b);
+
+	/**
+	 * Literal template text, including line ends.
+	 */
+	public static final class Text extends TemplateNode {
+		private final String text;
+
+		Text(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public void render(Block b) {
+			b.printResult(text);
+		}
+
+		public String getText() {
+			return text;
+		}
+	}
+
+	/**
+	 * Parameter slot, resolved once at compile time from a $$$name$$$
+	 * reference.
+	 */
+	public static final class Parameter extends TemplateNode {
+		private final String name;
+
+		Parameter(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void render(Block b) {
+			b.printParameter(name);
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	/**
+	 * Ordered list of nodes, e.g. a block body.
+	 */
+	public static final class Sequence extends TemplateNode {
+		private final TemplateNode[] nodes;
+
+		Sequence(List<TemplateNode> nodes) {
+			this.nodes = nodes.toArray(new TemplateNode[nodes.size()]);
+		}
+
+		@Override
+		public void render(Block b) {
+			for (TemplateNode n : nodes) {
+				n.render(b);
+			}
+		}
+
+		public List<TemplateNode> getNodes() {
+			return Collections.unmodifiableList(Arrays.asList(nodes));
+		}
+	}
+
+	/**
+	 * Common part of for and case blocks. The block argument is fixed when the
+	 * template is compiled, the handler is resolved once for the objective type
+	 * the block is rendered with.
+	 */
+	abstract static class BlockNode extends TemplateNode {
+		private final String blockArg;
+		private volatile Resolution resolution;
+
+		BlockNode(String blockArg) {
+			this.blockArg = blockArg;
+		}
+
+		ObjectiveBlockHandler handler(ProcessingObjective context) {
+			Resolution r = resolution;
+			if (r == null || r.type != context.getClass()) {
+				r = new Resolution(context.getClass(), BlockHandlerRegistry
+						.getDefault().resolve(context.getClass(), blockArg));
+				resolution = r;
+			}
+			return r.handler;
+		}
+
+		private static final class Resolution {
+			final Class<? extends ProcessingObjective> type;
+			final ObjectiveBlockHandler handler;
+
+			Resolution(Class<? extends ProcessingObjective> type,
+					ObjectiveBlockHandler handler) {
+				this.type = type;
+				this.handler = handler;
+			}
+		}
+	}
+
+	/**
+	 * ###for iterableName### ... ###end###
+	 */
+	public static final class For extends BlockNode {
+		private final String iterableName;
+		private final TemplateNode body;
+
+		public For(String iterableName, TemplateNode body) {
+			super(iterableName);
+			this.iterableName = iterableName;
+			this.body = body;
+		}
+
+		@Override
+		public void render(Block b) {
+			ProcessingObjective context = b.getContext();
+			new ForBlock(context, b.getParameters(), b.getWriter(),
+					iterableName, body, handler(context)).process();
+		}
+
+		public String getIterableName() {
+			return iterableName;
+		}
+
+		public TemplateNode getBody() {
+			return body;
+		}
+	}
+
+	/**
+	 * ###case caseName### ... ###end###
+	 */
+	public static final class Case extends BlockNode {
+		private final String caseName;
+		private final TemplateNode body;
+
+		public Case(String caseName, TemplateNode body) {
+			super(caseName);
+			this.caseName = caseName;
+			this.body = body;
+		}
+
+		@Override
+		public void render(Block b) {
+			ProcessingObjective context = b.getContext();
+			new CaseBlock(context, b.getParameters(), b.getWriter(), caseName,
+					body, handler(context)).process();
+		}
+
+		public String getCaseName() {
+			return caseName;
+		}
+
+		public TemplateNode getBody() {
+			return body;
+		}
+	}
+}
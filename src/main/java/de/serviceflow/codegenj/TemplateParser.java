@@ -15,82 +15,195 @@
  */
 package de.serviceflow.codegenj;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 
 /**
- * Encapsulate TemplateParser Access. Decouples read from Processing instance. 
+ * Encapsulate TemplateParser Access. Decouples read from Processing instance.
+ * 
+ * The template is scanned in place on a char buffer. {@link #next()} reports
+ * the token type, text tokens are available as offset range
+ * {@link #getTokenStart()} to {@link #getTokenEnd()} in {@link #getBuffer()}.
+ * A line is split into text tokens at each ###, with a BLOCK token in between
+ * and an EOL token at the end. Empty text tokens at the end of a line are
+ * dropped.
  */
 public class TemplateParser {
 	public static final String BLOCK_TOKEN = "###";
 	public static final String EOF_TOKEN = null;
 	public static final String EOL_TOKEN = "\n";
+	public static final String PARAMETER_TOKEN = "$$$";
+
+	public static final int EOF = 0;
+	public static final int EOL = 1;
+	public static final int BLOCK = 2;
+	public static final int TEXT = 3;
 
 	private final String path;
-	private BufferedReader r;
+	private char[] buffer;
+	private int length;
 	private int lineno = 0;
+
+	private int lineEnd = -1; // -1: start next line
+	private int nextLineStart = 0;
+	private int segmentStart;
+	private int lastSegmentEnd;
 	private boolean returnBlockToken = false;
-	private String[] bufferedTokens = null; 
-	private int bufferedTokensPointer = 0;
+	private int tokenStart;
+	private int tokenEnd;
 
 	public TemplateParser(String path) {
 		this.path = path;
 	}
 
-	public void open() {
-		InputStream tis = getClass().getResourceAsStream("/" + path);
-		r = new BufferedReader(new InputStreamReader(tis));
+	/**
+	 * @param buffer
+	 *            template text already loaded from path.
+	 */
+	public TemplateParser(String path, char[] buffer, int length) {
+		this.path = path;
+		this.buffer = buffer;
+		this.length = length;
 	}
 
-	public String readNext() {
-		try {
-			if (bufferedTokens == null || bufferedTokensPointer > bufferedTokens.length) {
-				String strLine;
-				if ((strLine = r.readLine()) != null) {
-					lineno++;
-					returnBlockToken = false;
-					bufferedTokens = strLine.split("###");
-					bufferedTokensPointer = 0;
-					// System.out.println(">"+lineno+" "+bufferedTokens.length+"
-					// "+strLine);
-				} else {
-					return EOF_TOKEN;
+	public void open() {
+		if (buffer == null) {
+			InputStream tis = getClass().getResourceAsStream("/" + path);
+			if (tis == null) {
+				throw new Error("Template not found: " + path);
+			}
+			try {
+				Reader r = new InputStreamReader(tis);
+				try {
+					buffer = new char[8192];
+					int n;
+					while ((n = r.read(buffer, length, buffer.length - length)) >= 0) {
+						length += n;
+						if (length == buffer.length) {
+							char[] b = new char[buffer.length * 2];
+							System.arraycopy(buffer, 0, b, 0, length);
+							buffer = b;
+						}
+					}
+				} finally {
+					r.close();
 				}
+			} catch (IOException e) {
+				throw new Error("Internal error", e);
 			}
+		}
+	}
 
-			if (bufferedTokensPointer < bufferedTokens.length) {
-				if (returnBlockToken) {
-					returnBlockToken = !returnBlockToken;
-					return BLOCK_TOKEN;
-				} else {
-					if (bufferedTokensPointer + 1 < bufferedTokens.length)
-						returnBlockToken = !returnBlockToken;
-					return bufferedTokens[bufferedTokensPointer++];
-				}
+	/**
+	 * @return the type of the next token: EOF, EOL, BLOCK or TEXT.
+	 */
+	public int next() {
+		if (lineEnd < 0) {
+			if (nextLineStart >= length) {
+				return EOF;
+			}
+			startLine();
+		}
+
+		if (segmentStart <= lastSegmentEnd) {
+			if (returnBlockToken) {
+				returnBlockToken = false;
+				return BLOCK;
+			}
+			int separator = indexOfBlockToken(segmentStart, lastSegmentEnd);
+			tokenStart = segmentStart;
+			if (separator >= 0) {
+				tokenEnd = separator;
+				segmentStart = separator + BLOCK_TOKEN.length();
+				returnBlockToken = true;
 			} else {
-				if (returnBlockToken) {
-					returnBlockToken = !returnBlockToken;
-					return BLOCK_TOKEN;
-				} else {
-					bufferedTokensPointer++;
-					return EOL_TOKEN;
-				}
+				tokenEnd = lastSegmentEnd;
+				segmentStart = lastSegmentEnd + 1;
 			}
-		} catch (IOException e) {
-			throw new Error("Internal error", e);
+			return TEXT;
 		}
+
+		lineEnd = -1;
+		return EOL;
 	}
 
-	public void close() {
-		try {
-			r.close();
-		} catch (IOException e) {
-			throw new Error("Internal error", e);
+	/**
+	 * Compatibility access returning the tokens as strings.
+	 * 
+	 * @return text token, BLOCK_TOKEN, EOL_TOKEN or EOF_TOKEN.
+	 */
+	public String readNext() {
+		switch (next()) {
+		case TEXT:
+			return new String(buffer, tokenStart, tokenEnd - tokenStart);
+		case BLOCK:
+			return BLOCK_TOKEN;
+		case EOL:
+			return EOL_TOKEN;
+		default:
+			return EOF_TOKEN;
 		}
 	}
 
+	private void startLine() {
+		int lineStart = nextLineStart;
+		int i = lineStart;
+		while (i < length && buffer[i] != '\n' && buffer[i] != '\r') {
+			i++;
+		}
+		lineEnd = i;
+		if (i < length && buffer[i] == '\r') {
+			i++;
+		}
+		if (i < length && buffer[i] == '\n') {
+			i++;
+		}
+		nextLineStart = i;
+		lineno++;
+
+		// find end of last non-empty text token
+		lastSegmentEnd = -1;
+		int s = lineStart;
+		int separator;
+		while ((separator = indexOfBlockToken(s, lineEnd)) >= 0) {
+			if (separator > s) {
+				lastSegmentEnd = separator;
+			}
+			s = separator + BLOCK_TOKEN.length();
+		}
+		if (lineEnd > s) {
+			lastSegmentEnd = lineEnd;
+		}
+		segmentStart = lineStart;
+		returnBlockToken = false;
+	}
+
+	private int indexOfBlockToken(int from, int to) {
+		for (int i = from; i + 2 < to; i++) {
+			if (buffer[i] == '#' && buffer[i + 1] == '#' && buffer[i + 2] == '#') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public char[] getBuffer() {
+		return buffer;
+	}
+
+	public int getTokenStart() {
+		return tokenStart;
+	}
+
+	public int getTokenEnd() {
+		return tokenEnd;
+	}
+
+	public void close() {
+	}
+
 	public String location() {
 		return path + ":" + lineno;
 	}
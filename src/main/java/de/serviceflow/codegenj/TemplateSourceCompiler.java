@@ -0,0 +1,275 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Build time compiler that turns templates into Java renderer classes. The
+ * generated class holds the template as straight-line write calls and is
+ * picked up by {@link TemplateCache} instead of parsing the template resource
+ * at runtime.
+ * 
+ * Usage: TemplateSourceCompiler &lt;templatedir&gt; &lt;resourcepath&gt;
+ * &lt;outputdir&gt;, e.g. src/main/resources/template/java template/java
+ * target/generated-sources/templates
+ */
+public final class TemplateSourceCompiler {
+	private static final String LINE_SEPARATOR = System
+			.getProperty("line.separator");
+	private static final String BASE_PACKAGE = "de.serviceflow.codegenj";
+
+	private final String path;
+	private final String sourceHash;
+	private final String className;
+	private final List<String> members = new ArrayList<String>();
+	private int blockCount = 0;
+
+	private TemplateSourceCompiler(String path, String sourceHash) {
+		this.path = path;
+		this.sourceHash = sourceHash;
+		this.className = simpleClassName(path);
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 3) {
+			System.err
+					.println("Usage: TemplateSourceCompiler <templatedir> <resourcepath> <outputdir>");
+			System.exit(-1);
+		}
+		File templateDir = new File(args[0]);
+		String resourcePath = args[1];
+		File outputDir = new File(args[2], packageName(resourcePath + "/x")
+				.replace('.', '/'));
+		outputDir.mkdirs();
+
+		File[] templates = templateDir.listFiles();
+		if (templates == null) {
+			throw new Error("Not a directory: " + templateDir);
+		}
+		Arrays.sort(templates);
+		for (File f : templates) {
+			if (f.getName().endsWith(".txt")) {
+				String path = resourcePath + "/" + f.getName();
+				char[] content = read(f);
+				CompiledTemplate t = TemplateCompiler.compile(path, content,
+						content.length);
+				TemplateSourceCompiler c = new TemplateSourceCompiler(path,
+						ContentHash.of(content, 0, content.length));
+				c.write(t, new File(outputDir, c.className + ".java"));
+			}
+		}
+	}
+
+	/**
+	 * @return fully qualified name of the renderer class for a template path.
+	 */
+	public static String className(String path) {
+		return packageName(path) + "." + simpleClassName(path);
+	}
+
+	private static String packageName(String path) {
+		int index = path.lastIndexOf('/');
+		return index < 0 ? BASE_PACKAGE : BASE_PACKAGE + "."
+				+ path.substring(0, index).replace('/', '.');
+	}
+
+	private static String simpleClassName(String path) {
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		int index = name.lastIndexOf('.');
+		if (index > 0)
+			name = name.substring(0, index);
+		StringBuilder result = new StringBuilder();
+		for (String word : name.split("[^A-Za-z0-9]+")) {
+			if (word.length() > 0)
+				result.append(Naming.javaClassName(word));
+		}
+		result.append("Template");
+		return result.toString();
+	}
+
+	private void write(CompiledTemplate t, File file) {
+		StringBuilder root = new StringBuilder();
+		compileBody(t.getRoot(), root, "\t\t");
+
+		PrintWriter w;
+		try {
+			w = new PrintWriter(new FileOutputStream(file));
+		} catch (FileNotFoundException e) {
+			throw new Error("Can't create output file: "
+					+ e.getLocalizedMessage());
+		}
+		try {
+			w.println("// Generated by codegenj TemplateSourceCompiler from "
+					+ path + " - DO NOT EDIT!");
+			w.println("package " + packageName(path) + ";");
+			w.println();
+			w.println("import java.io.PrintWriter;");
+			w.println();
+			w.println("import de.serviceflow.codegenj.Block;");
+			w.println("import de.serviceflow.codegenj.CompiledTemplate;");
+			w.println("import de.serviceflow.codegenj.TemplateNode;");
+			w.println();
+			w.println("public final class " + className
+					+ " extends TemplateNode {");
+			w.println("\tpublic static final String PATH = " + literal(path)
+					+ ";");
+			w.println("\tpublic static final String SOURCE_HASH = "
+					+ literal(sourceHash) + ";");
+			w.println("\tpublic static final CompiledTemplate TEMPLATE = new CompiledTemplate(PATH, new "
+					+ className + "());");
+			w.println();
+			for (String member : members) {
+				w.print(member);
+			}
+			w.println("\t@Override");
+			w.println("\tpublic void render(Block b) {");
+			w.println("\t\tPrintWriter w = b.getWriter();");
+			w.print(root);
+			w.println("\t}");
+			w.println("}");
+		} finally {
+			w.close();
+		}
+	}
+
+	private void compileBody(TemplateNode node, StringBuilder code,
+			String indent) {
+		if (node instanceof TemplateNode.Sequence) {
+			for (TemplateNode n : ((TemplateNode.Sequence) node).getNodes()) {
+				compileBody(n, code, indent);
+			}
+		} else if (node instanceof TemplateNode.Text) {
+			String text = ((TemplateNode.Text) node).getText();
+			int from = 0;
+			int index;
+			while ((index = text.indexOf(LINE_SEPARATOR, from)) >= 0) {
+				if (index > from) {
+					code.append(indent).append("w.write(")
+							.append(literal(text.substring(from, index)))
+							.append(");\n");
+				}
+				code.append(indent).append("w.println();\n");
+				from = index + LINE_SEPARATOR.length();
+			}
+			if (from < text.length()) {
+				code.append(indent).append("w.write(")
+						.append(literal(text.substring(from))).append(");\n");
+			}
+		} else if (node instanceof TemplateNode.Parameter) {
+			code.append(indent).append("b.printParameter(")
+					.append(literal(((TemplateNode.Parameter) node).getName()))
+					.append(");\n");
+		} else if (node instanceof TemplateNode.For) {
+			TemplateNode.For f = (TemplateNode.For) node;
+			code.append(indent)
+					.append(block("For", f.getIterableName(), f.getBody()))
+					.append(".render(b);\n");
+		} else if (node instanceof TemplateNode.Case) {
+			TemplateNode.Case c = (TemplateNode.Case) node;
+			code.append(indent)
+					.append(block("Case", c.getCaseName(), c.getBody()))
+					.append(".render(b);\n");
+		} else {
+			throw new Error("Unsupported template node "
+					+ node.getClass().getName() + " in " + path);
+		}
+	}
+
+	/**
+	 * Generate a block node with its body class.
+	 * 
+	 * @return name of the block field.
+	 */
+	private String block(String type, String arg, TemplateNode body) {
+		int n = blockCount++;
+		StringBuilder member = new StringBuilder();
+		member.append("\tprivate static final TemplateNode BLOCK_" + n
+				+ " = new TemplateNode." + type + "(" + literal(arg)
+				+ ", new Body" + n + "());\n\n");
+		member.append("\tstatic final class Body" + n
+				+ " extends TemplateNode {\n");
+		member.append("\t\t@Override\n");
+		member.append("\t\tpublic void render(Block b) {\n");
+		member.append("\t\t\tPrintWriter w = b.getWriter();\n");
+		compileBody(body, member, "\t\t\t");
+		member.append("\t\t}\n");
+		member.append("\t}\n\n");
+		members.add(member.toString());
+		return "BLOCK_" + n;
+	}
+
+	private static String literal(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			default:
+				if (c < 0x20 || c > 0x7e) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	private static char[] read(File f) {
+		try {
+			Reader r = new InputStreamReader(new FileInputStream(f));
+			try {
+				StringBuilder sb = new StringBuilder();
+				char[] buffer = new char[8192];
+				int n;
+				while ((n = r.read(buffer)) >= 0) {
+					sb.append(buffer, 0, n);
+				}
+				return sb.toString().toCharArray();
+			} finally {
+				r.close();
+			}
+		} catch (IOException e) {
+			throw new Error("Can't read template " + f + ": "
+					+ e.getLocalizedMessage());
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj;
+
+import java.io.PrintStream;
+
+/**
+ * Generation trace. Disabled by default; enable it with the system property
+ * codegenj.trace=template|block|detail or {@link #setLevel(Level)}. Callers
+ * check {@link #isEnabled(Level)} before building an event, so a disabled
+ * trace costs a field read per block.
+ * <p>
+ * Events go to a {@link Listener}, by default a console listener. Other
+ * listeners can forward them to a profiler, e.g. as JFR events.
+ */
+public final class Trace {
+
+	public enum Level {
+		OFF, TEMPLATE, BLOCK, DETAIL
+	}
+
+	public interface Listener {
+		void templateStart(String templatePath);
+
+		void templateEnd(String templatePath, long nanos);
+
+		void block(String blockname, ProcessingObjective context,
+				String blockArg);
+
+		void detail(String message);
+	}
+
+	/**
+	 * Prints events to a stream.
+	 */
+	public static class ConsoleListener implements Listener {
+		private final PrintStream out;
+
+		public ConsoleListener(PrintStream out) {
+			this.out = out;
+		}
+
+		public void templateStart(String templatePath) {
+			out.println("----- " + templatePath);
+		}
+
+		public void templateEnd(String templatePath, long nanos) {
+			out.println("----- " + templatePath + " done in " + nanos / 1000
+					+ " us");
+		}
+
+		public void block(String blockname, ProcessingObjective context,
+				String blockArg) {
+			out.println("***** process " + blockname + " "
+					+ context.getClass().getName() + " " + blockArg);
+		}
+
+		public void detail(String message) {
+			out.println("... " + message);
+		}
+	}
+
+	private static volatile int threshold = parseLevel(
+			System.getProperty("codegenj.trace")).ordinal();
+	private static volatile Listener listener = new ConsoleListener(System.out);
+
+	private Trace() {
+	}
+
+	public static boolean isEnabled(Level level) {
+		return level.ordinal() <= threshold;
+	}
+
+	public static void setLevel(Level level) {
+		threshold = level.ordinal();
+	}
+
+	public static void setListener(Listener listener) {
+		Trace.listener = listener;
+	}
+
+	public static Listener getListener() {
+		return listener;
+	}
+
+	/**
+	 * @param level
+	 *            level name, case insensitive; null means off.
+	 */
+	public static Level parseLevel(String level) {
+		if (level == null || level.length() == 0) {
+			return Level.OFF;
+		}
+		try {
+			return Level.valueOf(level.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new Error("Unknown trace level: '" + level + "'");
+		}
+	}
+}
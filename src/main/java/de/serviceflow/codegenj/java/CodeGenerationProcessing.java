@@ -16,37 +16,33 @@
 package de.serviceflow.codegenj.java;
 
 import java.io.PrintWriter;
-import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import de.serviceflow.codegenj.Block;
+import de.serviceflow.codegenj.BlockHandlerProvider;
+import de.serviceflow.codegenj.BlockHandlerRegistry;
 import de.serviceflow.codegenj.CaseBlock;
 import de.serviceflow.codegenj.ForBlock;
 import de.serviceflow.codegenj.Naming;
 import de.serviceflow.codegenj.Node;
 import de.serviceflow.codegenj.ObjectiveBlockHandler;
+import de.serviceflow.codegenj.Parameters;
 import de.serviceflow.codegenj.ProcessingObjective;
+import de.serviceflow.codegenj.Trace;
 import de.serviceflow.codegenj.Node.Interface;
 import de.serviceflow.codegenj.Node.Interface.Member;
 import de.serviceflow.codegenj.Node.Interface.Method;
 import de.serviceflow.codegenj.Node.Interface.Property;
-import de.serviceflow.codegenj.Node.Interface.Member.Annotation;
 import de.serviceflow.codegenj.Node.Interface.Member.Arg;
 
-public class CodeGenerationProcessing {
-	private final Map<String, ObjectiveBlockHandler> blockMap = new HashMap<String, ObjectiveBlockHandler>();
-	private final Map<String, String> wireToJavaTypeMap = new HashMap<String, String>();
-	private final Map<String, String> wireToJniTypeMap = new HashMap<String, String>();
-	private final Map<String, String> wireToCTypeMap = new HashMap<String, String>();
-	private final Map<String, String> wireBasedJava2CAssignFormatMap = new HashMap<String, String>();
-	private final Map<String, String> wireBasedJava2CCleanupFormatMap = new HashMap<String, String>();
-	private final Map<String, String> wireBasedC2JavaAssignFormatMap = new HashMap<String, String>();
-
+public class CodeGenerationProcessing implements BlockHandlerProvider {
 	private final Set<String> forbiddenIdentifiers = new HashSet<String>(
 			Arrays.asList("abstract", "continue", "for", "new", "switch",
 					"assert", "default", "goto", "package", "synchronized",
@@ -58,549 +54,348 @@ public class CodeGenerationProcessing {
 					"static", "void", "class", "finally", "long", "strictfp",
 					"volatile", "const", "float", "native", "super", "while"));
 
+	/**
+	 * @deprecated the type mappings are held by {@link TypeDescriptor}, there
+	 *             is nothing to initialize.
+	 */
+	@Deprecated
 	public void initializeProcessing() {
-		initializeWireToJavaTypeMapping();
-		initializeWireToJniTypeMapping();
-		initializeWireToCTypeMapping();
-		initializeWireBasedJava2CAssignFormatMapping();
-		initializeWireBasedJava2CCleanupFormatMapping();
-		initializeWireBasedC2JavaAssignFormatMapping();
-
-		initializeTemplateProcessingEvaluators();
 	}
 
 	/**
 	 * @param parameters
+	 *            scope of the node
 	 * @param i
+	 * @return scope of the interface
 	 */
-	public void processInterface(Map<String, String> parameters, Interface i) {
-		parameters.put("interface.name", i.getName());
-		parameters.put("interface.uname", Naming.javaUName(i.getName()));
-		parameters.put("classname", i.getName());
+	public Parameters processInterface(Parameters parameters, Interface i) {
+		Parameters.Builder scope = parameters.extend();
+		scope.put("interface.name", i.getName());
+		scope.put("interface.uname", Naming.javaUName(i.getName()));
+		scope.put("classname", i.getName());
 		String pname = Naming.javaPName(i.getName());
 		if (pname == null) {
-			parameters.put("interface.pcode", "");
+			scope.put("interface.pcode", "");
 		} else {
-			parameters.put("interface.pname", pname);
-			parameters.put("interface.pcode", "package " + pname + ";\n");
+			scope.put("interface.pname", pname);
+			scope.put("interface.pcode", "package " + pname + ";\n");
 		}
 
-		parameters.put("interface.cname",
+		scope.put("interface.cname",
 				Naming.cName(Naming.javaUName(i.getName())));
-		parameters.put("interface.jname", Naming.jName(i.getName()));
+		scope.put("interface.jname", Naming.jName(i.getName()));
+		return scope.build();
+	}
+
+	/**
+	 * Registration code of the CollectorAPI annotations of a tree, collected
+	 * into api.init, api.add and api.remove.
+	 */
+	public static final class CollectorAPI {
+		private final StringBuffer initCode = new StringBuffer();
+		private final StringBuffer addCode = new StringBuffer();
+		private final StringBuffer removeCode = new StringBuffer();
+
+		/**
+		 * Add the code of the collector links owned by an interface.
+		 */
+		public void addOwner(Interface owner) {
+			for (Entry<Interface, String> entry : owner
+					.getInterfaceCollectorMap().entrySet()) {
+				Interface i = entry.getKey();
+				String mname = entry.getValue();
+				int index = mname.indexOf('#');
+				if (index < 0 || !owner.getName().equals(mname.substring(0, index))) {
+					continue; // annotation not for this interface
+				}
+				String name = i.getName();
+				index = name.lastIndexOf('.');
+				if (index > 0)
+					name = name.substring(index + 1);
+
+				initCode.append("    \t");
+				initCode.append(owner.getName());
+				initCode.append("Proxy.initialize");
+				initCode.append(name);
+				initCode.append("Mapping();\n");
+
+				addCode.append("    \tif (\"");
+				addCode.append(i.getName());
+				addCode.append("\".equals(interfaceName)) { ");
+				addCode.append(owner.getName());
+				addCode.append("Proxy.add");
+				addCode.append(name);
+				addCode.append("Object(objectpath,  proxy); }\n");
+
+				removeCode.append("    \tif (\"");
+				removeCode.append(i.getName());
+				removeCode.append("\".equals(interfaceName)) { ");
+				removeCode.append(owner.getName());
+				removeCode.append("Proxy.remove");
+				removeCode.append(name);
+				removeCode.append("Object(objectpath,  proxy); }\n");
+			}
+		}
+
+		/**
+		 * Add the code of the ObjectManager links of the root node and put all
+		 * code into the scope.
+		 * 
+		 * @param scope
+		 *            scope of the ObjectManager templates
+		 * @param node
+		 */
+		public void put(Parameters.Builder scope, Node node) {
+			for (Entry<Interface, String> entry : node.getInterfaceCollectorMap()
+					.entrySet()) {
+				Interface i = entry.getKey();
+				String mname = entry.getValue();
+				int index = mname.indexOf('#');
+				if (index < 0
+						|| !ObjectManagerGenerator.OM_INAME.equals(mname.substring(0,
+								index))) {
+					continue; // annotation not for the object manager
+				}
+				String name = i.getName();
+				index = name.lastIndexOf('.');
+				if (index > 0)
+					name = name.substring(index + 1);
+				if (name.startsWith("*")) {
+					name = name.substring(1);
+				}
+
+				initCode.append("    \tde.serviceflow.codegenj.ObjectManager.initialize");
+				initCode.append(name);
+				initCode.append("Mapping();\n");
+
+				addCode.append("    \tif (\"");
+				addCode.append(i.getName());
+				addCode.append("\".equals(interfaceName)) { de.serviceflow.codegenj.ObjectManager.add");
+				addCode.append(name);
+				addCode.append("Object(objectpath,  proxy); }");
+
+				removeCode.append("    \tif (\"");
+				removeCode.append(i.getName());
+				removeCode
+						.append("\".equals(interfaceName)) { de.serviceflow.codegenj.ObjectManager.remove");
+				removeCode.append(name);
+				removeCode.append("Object(objectpath,  proxy); }");
+			}
+
+			scope.put("api.init", initCode.toString());
+			scope.put("api.add", addCode.toString());
+			scope.put("api.remove", removeCode.toString());
+		}
 	}
 
-	private void initializeTemplateProcessingEvaluators() {
+	public void registerHandlers(BlockHandlerRegistry registry) {
 		/*
-		 * Interface template parameterization
+		 * Interface template parameterization: methods
 		 */
-		blockMap.put(Interface.class.getName(), new ObjectiveBlockHandler() {
+		registry.register(Interface.class, "method", new ObjectiveBlockHandler() {
 			@Override
 			public void process(Block p, ProcessingObjective o,
 					String blockArg, PrintWriter w) {
 				Interface objective = (Interface) o;
-				if (p instanceof ForBlock) {
-					if ("method".equals(blockArg)) {
-						boolean supported = true;
-						for (Method m : objective.getMethods()) {
-							((ForBlock) p).changeContext(m);
-							p.getParameters().put("method.name", m.getName());
-							p.getParameters().put("method.jname",
-									Naming.javaMemberName(m.getName()));
-							p.getParameters().put("method.cname",
-									Naming.cName(m.getName()));
-							p.getParameters()
-									.put("method.sname",
-											Naming.cName(m.getName()).replace(
-													'_', '-'));
-							String comment = m.getComment();
-							if (comment == null)
-								comment = "";
-							p.getParameters().put("method.comment", comment);
-
-							String javareturntype = "void";
-							String jnireturntype = "void";
-							StringBuffer javaargs = new StringBuffer();
-							StringBuffer jniargs = new StringBuffer();
-							StringBuffer cparams = new StringBuffer();
-							StringBuffer cargmapcode = new StringBuffer();
-							StringBuffer cleanupcode = new StringBuffer();
-							StringBuffer creturncode = new StringBuffer();
-
-							for (Arg a : m.getArgs()) {
-								if ("out".equals(a.getDirection())) {
-									String wireType = a.getType();
-									int aDims = 0;
-									while (wireType.startsWith("a")) {
-										aDims++;
-										wireType = wireType.substring(1);
-									}
-									javareturntype = wireToJavaTypeMap
-											.get(wireType);
-									String javareturnbasetype = javareturntype;
-									jnireturntype = wireToJniTypeMap
-											.get(wireType);
-									String ctype = wireToCTypeMap.get(wireType);
-									String cbasetype = ctype;
-									for (int d = 0; d < aDims; d++) {
-										javareturntype = javareturntype + "[]";
-									}
-									if (javareturntype == null
-											|| jnireturntype == null || ctype==null) {
-										supported = false;
-										javareturntype = "?";
-										jnireturntype = "?";
-										ctype = "?";
-										// throw new Error(
-										// "Return wire type unsupperted: '"
-										// + a.getType()
-										// + "' at "
-										// + objective.getName()
-										// + "->"
-										// + javaMemberName(m
-										// .getName()));
-									}
-									if (aDims >= 2) {
-										jnireturntype = "jobject";
-										supported = false;
-									} else if (aDims == 1) {
-										if ("jstring".equals(jnireturntype)) {
-											jnireturntype = "jobjectArray";
-											supported = false;
-										} else if ("jobject"
-												.equals(jnireturntype)) {
-											jnireturntype = "jobjectArray";
-											supported = false;
-
-										} else {
-											jnireturntype = jnireturntype
-													+ "Array";
-											ctype = ctype + " *";
-										}
-									}
-									cargmapcode.append(ctype);
-									if (ctype.charAt(ctype.length() - 1) != '*')
-										cargmapcode.append(' ');
-									cargmapcode.append("_result;\n    ");
-
-									cparams.append("&_result,\n        ");
-
-									creturncode.append("    ");
-									creturncode.append(jnireturntype);
-									creturncode.append(" _jniresult;\n");
-
-									if (aDims == 0) {
-										creturncode
-												.append("    _jniresult = _result;\n");
-									} else if (aDims == 1) {
-										creturncode
-												.append("    gint size = sizeof(_result) / sizeof(");
-										creturncode.append(cbasetype);
-										creturncode.append(");\n");
-										creturncode
-												.append("    _jniresult = (*env)->New");
-										creturncode.append(Character
-												.toUpperCase(javareturnbasetype
-														.charAt(0)));
-										creturncode.append(javareturnbasetype
-												.substring(1));
-										creturncode
-												.append("Array(env, size);\n");
-
-										creturncode
-												.append("    if (_jniresult == NULL) {\n");
-										creturncode
-												.append("        return NULL; // out of memory error thrown\n");
-										creturncode.append("    }\n");
-										creturncode.append("    (*env)->Set");
-										creturncode.append(Character
-												.toUpperCase(javareturnbasetype
-														.charAt(0)));
-										creturncode.append(javareturnbasetype
-												.substring(1));
-										creturncode
-												.append("ArrayRegion(env, _jniresult, 0, size, _result);\n");
-									}
-
-									creturncode
-											.append("    return _jniresult;\n");
-								} else if ("in".equals(a.getDirection())) {
-									String wireType = a.getType();
-									int aDims = 0;
-									while (wireType.startsWith("a")) {
-										aDims++;
-										wireType = wireType.substring(1);
-									}
-									String javaargbasetype = wireToJavaTypeMap
-											.get(wireType);
-									String javaargtype = javaargbasetype;
-									String jniargtype = wireToJniTypeMap
-											.get(wireType);
-									String ctype = wireToCTypeMap.get(wireType);
-									if (javaargbasetype == null
-											|| ctype == null) {
-										supported = false;
-										javaargbasetype = "?";
-										// throw new Error(
-										// "Wire type unsupperted for arg : "
-										// + a.getName()
-										// + " '"
-										// + a.getType()
-										// + "' at "
-										// + objective.getName()
-										// + "->"
-										// + javaMemberName(m
-										// .getName()));
-									}
-									if (aDims >= 2
-											|| (aDims == 1 && "jstring"
-													.equals(jniargtype))) {
-										jniargtype = "jobject";
-										supported = false;
-									} else if (aDims == 1) {
-										javaargtype = javaargbasetype + " []";
-										jniargtype = jniargtype + "Array";
-									}
-
-									if (javaargs.length() > 0)
-										javaargs.append(", ");
-									javaargs.append(javaargtype);
-									javaargs.append(' ');
-									javaargs.append(a.getName());
-
-									jniargs.append(", ");
-									jniargs.append(jniargtype);
-									jniargs.append(' ');
-									jniargs.append(a.getName());
-
-									cargmapcode.append(ctype);
-									if (ctype != null
-											&& ctype.charAt(ctype.length() - 1) != '*')
-										cargmapcode.append(' ');
-									if (aDims == 1) {
-										cargmapcode.append("*");
-									}
-									cargmapcode.append("c_arg_");
-									cargmapcode.append(a.getName());
-									cargmapcode.append(" = ");
-									if (aDims == 0) {
-										String code = wireBasedJava2CAssignFormatMap
-												.get(wireType);
-										if (code != null) {
-											if ("?".equals(code)) {
-												supported = false;
-											}
-											MessageFormat form = new MessageFormat(
-													code);
-											Object[] fArgs = { a.getName() };
-											cargmapcode.append(form
-													.format(fArgs));
-										} else {
-											// types compatible: direct
-											// assignment
-											cargmapcode.append(a.getName());
-											cargmapcode.append(';');
-										}
-									} else if (aDims == 1) {
-										cargmapcode.append("(*env)->Get");
-										cargmapcode.append(Character
-												.toUpperCase(javaargbasetype
-														.charAt(0)));
-										cargmapcode.append(javaargbasetype
-												.substring(1));
-										cargmapcode
-												.append("ArrayElements(env, ");
-										cargmapcode.append(a.getName());
-										cargmapcode.append(", 0);");
-									} else {
-										supported = false;
-									}
-									cargmapcode.append("\n    ");
-
-									if (isPrimitiveJniType(jniargtype))
-										cparams.append("&");
-									cparams.append("c_arg_");
-									cparams.append(a.getName());
-									cparams.append(",\n        ");
-
-									if (aDims == 0) {
-										String code = wireBasedJava2CAssignFormatMap
-												.get(wireType);
-										if (code != null) {
-											if ("?".equals(code)) {
-												supported = false;
-											}
-											MessageFormat form = new MessageFormat(
-													code);
-											Object[] fArgs = { a.getName() };
-											cleanupcode.append("    ");
-											cleanupcode.append(form
-													.format(fArgs));
-											cleanupcode.append("\n");
-										} else {
-											// types compatible: direct
-											// assignment
-											cleanupcode.append(a.getName());
-											cleanupcode.append(";\n");
-										}
-									} else if (aDims == 1) {
-										cleanupcode
-												.append("    (*env)->Release");
-										cleanupcode.append(Character
-												.toUpperCase(javaargbasetype
-														.charAt(0)));
-										cleanupcode.append(javaargbasetype
-												.substring(1));
-										cleanupcode
-												.append("ArrayElements(env, ");
-										cleanupcode.append(a.getName());
-										cleanupcode.append(", c_arg_");
-										cleanupcode.append(a.getName());
-										cleanupcode.append(", 0);\n");
-									} else {
-										supported = false;
-									}
+				for (Method m : objective.getMethods()) {
+					forBlock(p).changeContext(m);
+					Parameters.Builder scope = p.getParameters().extend();
+					scope.put("method.name", m.getName());
+					scope.put("method.jname",
+							Naming.javaMemberName(m.getName()));
+					scope.put("method.cname",
+							Naming.cName(m.getName()));
+					scope
+							.put("method.sname",
+									Naming.cName(m.getName()).replace(
+											'_', '-'));
+					String comment = m.getComment();
+					if (comment == null)
+						comment = "";
+					scope.put("method.comment", comment);
+
+					final MethodPlan plan = MethodPlan.of(m);
+					final String[] names = MethodPlan.names(m);
+					scope.put("method.javareturntype", plan.javareturntype);
+					scope.put("method.javaargs", plan.javaargs.render(names));
+					scope.put("method.jnireturntype", plan.jnireturntype);
+					scope.put("method.jniargs", plan.jniargs.render(names));
+
+					/*
+					 * C marshalling code is only built if a template
+					 * references it.
+					 */
+					scope.put("method.cparams",
+							new Parameters.Lazy<String>() {
+								protected String compute() {
+									return plan.marshalling().cparams
+											.render(names);
 								}
-							}
-							p.getParameters().put("method.javareturntype",
-									javareturntype);
-							p.getParameters().put("method.javaargs",
-									javaargs.toString());
-							p.getParameters().put("method.jnireturntype",
-									jnireturntype);
-							p.getParameters().put("method.jniargs",
-									jniargs.toString());
-							p.getParameters().put("method.cparams",
-									cparams.toString());
-							p.getParameters().put("method.cargmapcode",
-									cargmapcode.toString());
-							p.getParameters().put("method.cleanupcode",
-									cleanupcode.toString());
-							p.getParameters().put("method.creturncode",
-									creturncode.toString());
-							if (supported)
-								w.print(p.process(getContent()));
-							else
-								w.print("// Method signature unsupported: "
-										+ m.getName());
-						}
-					} else if ("de.serviceflow.codegenj.CollectorAPI"
-							.equals(blockArg)) {
-						StringBuffer initCode = new StringBuffer();
-						StringBuffer addCode = new StringBuffer();
-						StringBuffer removeCode = new StringBuffer();
-						String existingCode = p.getParameters().get("api.init");
-						if (existingCode != null) {
-							initCode.append(existingCode);
-						}
-						existingCode = p.getParameters().get("api.add");
-						if (existingCode != null) {
-							addCode.append(existingCode);
-						}
-						existingCode = p.getParameters().get("api.remove");
-						if (existingCode != null) {
-							removeCode.append(existingCode);
-						}
-						for (Entry<Interface, String> entry : objective
-								.getInterfaceCollectorMap().entrySet()) {
-							Interface i = entry.getKey();
-							String mname = entry.getValue();
-							int index = mname.indexOf('#');
-							if (index < 0) {
-								throw new Error(
-										"Value of annotation de.serviceflow.codegenj.CollectorAPI must be 'class#method' or 'class#*method' for "
-												+ p.getBlockname()
-												+ " ("
-												+ p.getClass().getName() + ")");
-							}
-							String templateclassname = p.getParameters().get(
-									"classname");
-							if (!templateclassname.equals(mname.substring(0,
-									index))) {
-								continue; // annotation not for current template
-											// instance
-							}
-							mname = mname.substring(index + 1);
-							p.getParameters().put("opmode",
-									String.valueOf(!mname.startsWith("*")));
-							if (mname.startsWith("*")) {
-								mname = mname.substring(1);
-							}
-							String name = i.getName();
-							p.getParameters().put("cinterfacename", name);
-							index = name.lastIndexOf('.');
-							if (index > 0)
-								name = name.substring(index + 1);
-							p.getParameters().put("cname", name);
-							p.getParameters().put("vname", name.toLowerCase());
-							p.getParameters().put("mname", mname);
-							w.print(p.process(getContent()));
-
-							initCode.append("    	");
-							initCode.append(p.getParameters().get(
-									"interface.name"));
-							initCode.append("Proxy.initialize");
-							initCode.append(name);
-							initCode.append("Mapping();\n");
-
-							addCode.append("    	if (\"");
-							addCode.append(i.getName());
-							addCode.append("\".equals(interfaceName)) { ");
-							addCode.append(p.getParameters().get(
-									"interface.name"));
-							addCode.append("Proxy.add");
-							addCode.append(name);
-							addCode.append("Object(objectpath,  proxy); }\n");
-
-							removeCode.append("    	if (\"");
-							removeCode.append(i.getName());
-							removeCode.append("\".equals(interfaceName)) { ");
-							removeCode.append(p.getParameters().get(
-									"interface.name"));
-							removeCode.append("Proxy.remove");
-							removeCode.append(name);
-							removeCode
-									.append("Object(objectpath,  proxy); }\n");
-						}
-						p.getParameters().put("api.init", initCode.toString());
-						p.getParameters().put("api.add", addCode.toString());
-						p.getParameters().put("api.remove",
-								removeCode.toString());
-					} else if ("properties".equals(blockArg)) {
-						for (Property pr : objective.getProperties()) {
-							((ForBlock) p).changeContext(pr);
-							w.print(p.process(getContent()));
-						}
-						p.getParameters().remove("property.access");
-					} else {
+							});
+					scope.put("method.cargmapcode",
+							new Parameters.Lazy<String>() {
+								protected String compute() {
+									return plan.marshalling().cargmapcode
+											.render(names);
+								}
+							});
+					scope.put("method.cleanupcode",
+							new Parameters.Lazy<String>() {
+								protected String compute() {
+									return plan.marshalling().cleanupcode
+											.render(names);
+								}
+							});
+					scope.put("method.creturncode",
+							new Parameters.Lazy<String>() {
+								protected String compute() {
+									return plan.marshalling().creturncode
+											.render(names);
+								}
+							});
+					if (plan.supported)
+						p.render(scope.build());
+					else
+						w.print("// Method signature unsupported: "
+								+ m.getName());
+				}
+			}
+		});
+
+		/*
+		 * Interface template parameterization: collected interfaces
+		 */
+		registry.register(Interface.class, "de.serviceflow.codegenj.CollectorAPI", new ObjectiveBlockHandler() {
+			@Override
+			public void process(Block p, ProcessingObjective o,
+					String blockArg, PrintWriter w) {
+				Interface objective = (Interface) o;
+				for (Entry<Interface, String> entry : objective
+						.getInterfaceCollectorMap().entrySet()) {
+					Interface i = entry.getKey();
+					String mname = entry.getValue();
+					int index = mname.indexOf('#');
+					if (index < 0) {
 						throw new Error(
-								"No processing objective for block argument '"
-										+ blockArg + "' at " + p.getBlockname()
-										+ " (" + p.getClass().getName() + ")");
+								"Value of annotation de.serviceflow.codegenj.CollectorAPI must be 'class#method' or 'class#*method' for "
+										+ p.getBlockname()
+										+ " ("
+										+ p.getClass().getName() + ")");
 					}
-				} else {
-					throw new Error("No processing objective for "
-							+ p.getBlockname() + " (" + p.getClass().getName()
-							+ ")");
+					String templateclassname = p.getParameters().get(
+							"classname");
+					if (!templateclassname.equals(mname.substring(0,
+							index))) {
+						continue; // annotation not for current template
+									// instance
+					}
+					Parameters.Builder scope = p.getParameters().extend();
+					mname = mname.substring(index + 1);
+					scope.put("opmode",
+							String.valueOf(!mname.startsWith("*")));
+					if (mname.startsWith("*")) {
+						mname = mname.substring(1);
+					}
+					String name = i.getName();
+					scope.put("cinterfacename", name);
+					index = name.lastIndexOf('.');
+					if (index > 0)
+						name = name.substring(index + 1);
+					scope.put("cname", name);
+					scope.put("vname", name.toLowerCase());
+					scope.put("mname", mname);
+					p.render(scope.build());
 				}
 			}
+		});
 
+		/*
+		 * Interface template parameterization: properties
+		 */
+		registry.register(Interface.class, "properties", new ObjectiveBlockHandler() {
+			@Override
+			public void process(Block p, ProcessingObjective o,
+					String blockArg, PrintWriter w) {
+				Interface objective = (Interface) o;
+				for (Property pr : objective.getProperties()) {
+					forBlock(p).changeContext(pr);
+					p.render(p.getParameters());
+				}
+			}
 		});
 
 		/*
 		 * ObjectHandler template parameterization
 		 */
-		blockMap.put(Node.class.getName(), new ObjectiveBlockHandler() {
+		registry.register(Node.class, "de.serviceflow.codegenj.CollectorAPI", new ObjectiveBlockHandler() {
 			@Override
 			public void process(Block p, ProcessingObjective o,
 					String blockArg, PrintWriter w) {
 				Node objective = (Node) o;
-				if (p instanceof ForBlock) {
-					if ("de.serviceflow.codegenj.CollectorAPI".equals(blockArg)) {
-						StringBuffer initCode = new StringBuffer();
-						StringBuffer addCode = new StringBuffer();
-						StringBuffer removeCode = new StringBuffer();
-						String existingCode = p.getParameters().get("api.init");
-						if (existingCode != null) {
-							initCode.append(existingCode);
-						}
-						existingCode = p.getParameters().get("api.add");
-						if (existingCode != null) {
-							addCode.append(existingCode);
-						}
-						existingCode = p.getParameters().get("api.remove");
-						if (existingCode != null) {
-							removeCode.append(existingCode);
-						}
-						for (Entry<Interface, String> entry : objective
-								.getInterfaceCollectorMap().entrySet()) {
-							Interface i = entry.getKey();
-							String mname = entry.getValue();
-							int index = mname.indexOf('#');
-							if (index < 0) {
-								throw new Error(
-										"Value of annotation de.serviceflow.codegenj.CollectorAPI must be 'class#method' or 'class#*method' for "
-												+ p.getBlockname()
-												+ " ("
-												+ p.getClass().getName() + ")");
-							}
-							String templateclassname = p.getParameters().get(
-									"classname");
-							if (!templateclassname.equals(mname.substring(0,
-									index))) {
-								continue; // annotation not for current template
-											// instance
-							}
-							mname = mname.substring(index + 1);
-							String name = i.getName();
-							p.getParameters().put("interfacename", name);
-							index = name.lastIndexOf('.');
-							if (index > 0)
-								name = name.substring(index + 1);
-							p.getParameters().put("opmode",
-									String.valueOf(!name.startsWith("*")));
-							if (name.startsWith("*")) {
-								name = name.substring(1);
-							}
-							p.getParameters().put("cname", name);
-							p.getParameters().put("vname", name.toLowerCase());
-							p.getParameters().put("mname", mname);
-							w.print(p.process(getContent()));
-
-							initCode.append("    	de.serviceflow.codegenj.ObjectManager.initialize");
-							initCode.append(name);
-							initCode.append("Mapping();\n");
-
-							addCode.append("    	if (\"");
-							addCode.append(i.getName());
-							addCode.append("\".equals(interfaceName)) { de.serviceflow.codegenj.ObjectManager.add");
-							addCode.append(name);
-							addCode.append("Object(objectpath,  proxy); }");
-
-							removeCode.append("    	if (\"");
-							removeCode.append(i.getName());
-							removeCode
-									.append("\".equals(interfaceName)) { de.serviceflow.codegenj.ObjectManager.remove");
-							removeCode.append(name);
-							removeCode.append("Object(objectpath,  proxy); }");
-						}
-						p.getParameters().put("api.init", initCode.toString());
-						p.getParameters().put("api.add", addCode.toString());
-						p.getParameters().put("api.remove",
-								removeCode.toString());
+				for (Entry<Interface, String> entry : objective
+						.getInterfaceCollectorMap().entrySet()) {
+					Interface i = entry.getKey();
+					String mname = entry.getValue();
+					int index = mname.indexOf('#');
+					if (index < 0) {
+						throw new Error(
+								"Value of annotation de.serviceflow.codegenj.CollectorAPI must be 'class#method' or 'class#*method' for "
+										+ p.getBlockname()
+										+ " ("
+										+ p.getClass().getName() + ")");
 					}
-				} else {
-					throw new Error("No processing objective for "
-							+ p.getBlockname() + " (" + p.getClass().getName()
-							+ ")");
+					String templateclassname = p.getParameters().get(
+							"classname");
+					if (!templateclassname.equals(mname.substring(0,
+							index))) {
+						continue; // annotation not for current template
+									// instance
+					}
+					Parameters.Builder scope = p.getParameters().extend();
+					mname = mname.substring(index + 1);
+					String name = i.getName();
+					scope.put("interfacename", name);
+					index = name.lastIndexOf('.');
+					if (index > 0)
+						name = name.substring(index + 1);
+					scope.put("opmode",
+							String.valueOf(!name.startsWith("*")));
+					if (name.startsWith("*")) {
+						name = name.substring(1);
+					}
+					scope.put("cname", name);
+					scope.put("vname", name.toLowerCase());
+					scope.put("mname", mname);
+					p.render(scope.build());
 				}
 			}
 		});
 
+
 		/*
 		 * Property Sub-Block parameterization
 		 */
-		blockMap.put(Property.class.getName(), new ObjectiveBlockHandler() {
+		registry.register(Property.class, null, new ObjectiveBlockHandler() {
 			@Override
 			public void process(Block p, ProcessingObjective o,
 					String blockArg, PrintWriter w) {
 				Property objective = (Property) o;
-				if ("ao".equals(objective.getType())) {
-					for (Annotation a : objective.getAnnotations()) {
-						if ("de.serviceflow.codegenj.CollectorAPI".equals(a
-								.getName())) {
-							return; // handled by annotation - skip property
-						}
-					}
-
+				if ("ao".equals(objective.getType())
+						&& !objective.getAnnotations(
+								"de.serviceflow.codegenj.CollectorAPI")
+								.isEmpty()) {
+					return; // handled by annotation - skip property
 				}
 				if (p instanceof CaseBlock) {
 					boolean supported = true;
 					String casename = ((CaseBlock) p).getCaseName();
 					String accessvalue = objective.getAccess();
-					System.out.println("... property '" + objective.getName()
-							+ "': casename : " + casename + "   accessvalue: "
-							+ accessvalue);
+					if (Trace.isEnabled(Trace.Level.DETAIL)) {
+						Trace.getListener().detail(
+								"property '" + objective.getName()
+										+ "': casename : " + casename
+										+ "   accessvalue: " + accessvalue);
+					}
 					String suffix = "";
 					if (forbiddenIdentifiers.contains(objective.getName()
 							.toLowerCase())) {
@@ -609,17 +404,18 @@ public class CodeGenerationProcessing {
 					String comment = objective.getComment();
 					if (comment == null)
 						comment = "";
-					p.getParameters().put("method.comment", comment);
+					Parameters.Builder scope = p.getParameters().extend();
+					scope.put("method.comment", comment);
 					if (("read".equals(casename) && ("read".equals(accessvalue) || "readwrite"
 							.equals(accessvalue)))
 							|| ("write".equals(casename) && ("write"
 									.equals(accessvalue) || "readwrite"
 									.equals(accessvalue)))) {
-						p.getParameters().put("property.name",
+						scope.put("property.name",
 								objective.getName());
-						p.getParameters().put("property.type",
+						scope.put("property.type",
 								objective.getType());
-						p.getParameters().put("property.access", accessvalue);
+						scope.put("property.access", accessvalue);
 						String javareturntype = "void";
 						String jnireturntype = "void";
 						StringBuffer javaargs = new StringBuffer();
@@ -627,292 +423,279 @@ public class CodeGenerationProcessing {
 						StringBuffer cargmapcode = new StringBuffer();
 						StringBuffer cleanupcode = new StringBuffer();
 						StringBuffer creturncode = new StringBuffer();
-						p.getParameters().put("method.cname",
+						scope.put("method.cname",
 								Naming.cName(objective.getName()));
 
 						if ("read".equals(casename)) {
-							p.getParameters().put("method.jname",
+							scope.put("method.jname",
 									"get" + objective.getName() + suffix);
 
 							// ------------- GETTER -------------
 
-							String wireType = objective.getType();
-							int aDims = 0;
-							while (wireType.startsWith("a")) {
-								aDims++;
-								wireType = wireType.substring(1);
-							}
-							javareturntype = wireToJavaTypeMap.get(wireType);
-							if (javareturntype == null)
-								supported = false;
-							String javareturnbasetype = javareturntype;
-							jnireturntype = wireToJniTypeMap.get(wireType);
-							String ctype = wireToCTypeMap.get(wireType);
-							String cbasetype = ctype;
-							for (int d = 0; d < aDims; d++) {
-								javareturntype = javareturntype + "[]";
-							}
-							if (javareturntype == null || jnireturntype == null) {
-								supported = false;
-								javareturntype = "?";
-								jnireturntype = "?";
-							}
-							if (aDims >= 2) {
-								jnireturntype = "jobject";
-								supported = false;
-							} else if (aDims == 1) {
-								if ("jstring".equals(jnireturntype)) {
-									jnireturntype = "jobjectArray";
-									ctype = "char *const *";
-									// supported = false;
-								} else if ("jobject".equals(jnireturntype)) {
-										jnireturntype = "jobjectArray";
-										ctype = "void *";
-										supported = false;
-								} else {
-									jnireturntype = jnireturntype + "Array";
-									ctype = ctype + " *";
+							TypeDescriptor type = TypeDescriptor.of(objective
+									.getType());
+							if (type.getMarshalling() == TypeDescriptor.Marshalling.VARIANT) {
+								javareturntype = type.getJavaType();
+								jnireturntype = type.getJniType();
+								cargmapcode.append("GVariant *_result = (GVariant *)");
+								creturncode
+										.append("    if (_result==NULL)\n");
+								creturncode
+										.append("        return NULL;\n");
+								appendVariantToJava(creturncode, "    ",
+										"_result", "jstring _jniresult");
+								creturncode.append("    return _jniresult;\n");
+							} else {
+								TypeDescriptor base = type.getBase();
+								int aDims = type.getDims();
+								javareturntype = base.getJavaType();
+								if (javareturntype == null)
+									supported = false;
+								String javareturnbasetype = javareturntype;
+								jnireturntype = base.getJniType();
+								String ctype = base.getCType();
+								String cbasetype = ctype;
+								for (int d = 0; d < aDims; d++) {
+									javareturntype = javareturntype + "[]";
 								}
-							}
-
-							if (supported) {
-								cargmapcode.append(ctype);
-								if (ctype.charAt(ctype.length() - 1) != '*')
-									cargmapcode.append(' ');
-								cargmapcode.append("_result = (");
-								cargmapcode.append(ctype);
-								cargmapcode.append(")");
-
-								if (aDims == 0
-										&& wireBasedC2JavaAssignFormatMap
-												.get(wireType) != null) {
-									creturncode
-											.append("    if (_result==NULL)\n");
-									creturncode
-											.append("        return NULL;\n");
+								if (javareturntype == null || jnireturntype == null) {
+									supported = false;
+									javareturntype = "?";
+									jnireturntype = "?";
 								}
-								creturncode.append("    ");
-								creturncode.append(jnireturntype);
-								creturncode.append(" _jniresult = ");
-
-								if (aDims == 0) {
-									String code = wireBasedC2JavaAssignFormatMap
-											.get(wireType);
-									if (code != null) {
-										if ("?".equals(code)) {
+								if (aDims >= 2) {
+									jnireturntype = "jobject";
+									supported = false;
+								} else if (aDims == 1) {
+									if ("jstring".equals(jnireturntype)) {
+										jnireturntype = "jobjectArray";
+										ctype = "char *const *";
+										// supported = false;
+									} else if ("jobject".equals(jnireturntype)) {
+											jnireturntype = "jobjectArray";
+											ctype = "void *";
 											supported = false;
-										}
-										MessageFormat form = new MessageFormat(
-												code);
-										Object[] fArgs = { "_result" };
-										creturncode.append(form.format(fArgs));
 									} else {
-										// types compatible: direct
-										// assignment
-										creturncode.append("_result");
-										creturncode.append(';');
+										jnireturntype = jnireturntype + "Array";
+										ctype = ctype + " *";
 									}
-								} else if (aDims == 1) {
-									if ("s".equals(wireType)) {
-										creturncode.append("NULL;\n");
-
-										creturncode
-												.append("    int asize = 0;\n");
-										creturncode.append("    int i;\n");
+								}
 
-										creturncode
-												.append("    for (i=0; _result[i] != NULL; i++)  asize++;\n");
+								if (supported) {
+									cargmapcode.append(ctype);
+									if (ctype.charAt(ctype.length() - 1) != '*')
+										cargmapcode.append(' ');
+									cargmapcode.append("_result = (");
+									cargmapcode.append(ctype);
+									cargmapcode.append(")");
 
-										creturncode.append("    ");
-										creturncode.append("_jniresult = ");
+									if (aDims == 0
+											&& base.getC2JavaAssignFormat() != null) {
 										creturncode
-												.append("(jobjectArray) (*env) -> NewObjectArray(env, asize, (*env) -> FindClass(env, \"java/lang/String\"), NULL);\n");
+												.append("    if (_result==NULL)\n");
 										creturncode
-												.append("    for(i=0;i<asize;i++) { (*env)->SetObjectArrayElement(env, _jniresult, i, (*env)->NewStringUTF(env, _result[i])); }");
-									} else {
-										creturncode.append("NULL;\n");
-
-										creturncode
-												.append("    int asize = 0;\n");
-										creturncode.append("    int i;\n");
+												.append("        return NULL;\n");
+									}
+									creturncode.append("    ");
+									creturncode.append(jnireturntype);
+									creturncode.append(" _jniresult = ");
 
-										creturncode
-												.append("    for (i=0; _result[i] != (");
-										creturncode.append(cbasetype);
-										creturncode
-												.append(")0; i++)  asize++;\n");
+									if (aDims == 0) {
+										String code = base.getC2JavaAssignFormat();
+										if (code != null) {
+											if ("?".equals(code)) {
+												supported = false;
+											}
+											creturncode.append(format(code,
+													"_result"));
+										} else {
+											// types compatible: direct
+											// assignment
+											creturncode.append("_result");
+											creturncode.append(';');
+										}
+									} else if (aDims == 1) {
+										if ("s".equals(base.getSignature())) {
+											creturncode.append("NULL;\n");
+
+											creturncode
+													.append("    int asize = 0;\n");
+											creturncode.append("    int i;\n");
+
+											creturncode
+													.append("    for (i=0; _result[i] != NULL; i++)  asize++;\n");
+
+											creturncode.append("    ");
+											creturncode.append("_jniresult = ");
+											creturncode
+													.append("(jobjectArray) (*env) -> NewObjectArray(env, asize, (*env) -> FindClass(env, \"java/lang/String\"), NULL);\n");
+											creturncode
+													.append("    for(i=0;i<asize;i++) { (*env)->SetObjectArrayElement(env, _jniresult, i, (*env)->NewStringUTF(env, _result[i])); }");
+										} else {
+											creturncode.append("NULL;\n");
+
+											creturncode
+													.append("    int asize = 0;\n");
+											creturncode.append("    int i;\n");
+
+											creturncode
+													.append("    for (i=0; _result[i] != (");
+											creturncode.append(cbasetype);
+											creturncode
+													.append(")0; i++)  asize++;\n");
+
+											creturncode.append("    ");
+											creturncode.append("_jniresult = ");
+											creturncode
+													.append("(jobjectArray) (*env) -> New");
+											creturncode.append(Character
+													.toUpperCase(javareturnbasetype
+															.charAt(0)));
+											creturncode.append(javareturnbasetype
+													.substring(1));
+											creturncode
+													.append("Array(env, asize);\n");
+
+											creturncode.append("    (*env)->Set");
+											creturncode.append(Character
+													.toUpperCase(javareturnbasetype
+															.charAt(0)));
+											creturncode.append(javareturnbasetype
+													.substring(1));
+											creturncode
+													.append("ArrayRegion(env, _jniresult, 0, asize, _result);");
+										}
 
-										creturncode.append("    ");
-										creturncode.append("_jniresult = ");
-										creturncode
-												.append("(jobjectArray) (*env) -> New");
-										creturncode.append(Character
-												.toUpperCase(javareturnbasetype
-														.charAt(0)));
-										creturncode.append(javareturnbasetype
-												.substring(1));
-										creturncode
-												.append("Array(env, asize);\n");
-
-										creturncode.append("    (*env)->Set");
-										creturncode.append(Character
-												.toUpperCase(javareturnbasetype
-														.charAt(0)));
-										creturncode.append(javareturnbasetype
-												.substring(1));
-										creturncode
-												.append("ArrayRegion(env, _jniresult, 0, asize, _result);");
+									} else {
+										supported = false;
 									}
+									creturncode.append("\n");
 
-								} else {
-									supported = false;
+									creturncode.append("    return _jniresult;\n");
 								}
-								creturncode.append("\n");
-
-								creturncode.append("    return _jniresult;\n");
 							}
 
 						} else {
 
 							// ------------- SETTER -------------
 
-							p.getParameters().put("method.jname",
+							scope.put("method.jname",
 									"set" + objective.getName() + suffix);
 
-							String wireType = objective.getType();
-							int aDims = 0;
-							while (wireType.startsWith("a")) {
-								aDims++;
-								wireType = wireType.substring(1);
-							}
-							String javaargbasetype = wireToJavaTypeMap
-									.get(wireType);
-							String javaargtype = javaargbasetype;
-							String jniargtype = wireToJniTypeMap.get(wireType);
-							String ctype = wireToCTypeMap.get(wireType);
-							if (javaargbasetype == null || ctype == null) {
-								supported = false;
-								javaargbasetype = "?";
-								ctype = "?";
-								// throw new Error(
-								// "Wire type unsupperted for arg : "
-								// + a.getName()
-								// + " '"
-								// + a.getType()
-								// + "' at "
-								// + objective.getName()
-								// + "->"
-								// + javaMemberName(m
-								// .getName()));
-							}
-							if (aDims >= 2
-									|| (aDims == 1 && "jstring"
-											.equals(jniargtype))) {
-								jniargtype = "jobject";
-								supported = false;
-							} else if (aDims == 1) {
-								javaargtype = javaargbasetype + " []";
-								jniargtype = jniargtype + "Array";
-							}
+							TypeDescriptor type = TypeDescriptor.of(objective
+									.getType());
+							if (type.getMarshalling() == TypeDescriptor.Marshalling.VARIANT) {
+								javaargs.append(type.getJavaType());
+								javaargs.append(' ');
+								javaargs.append(objective.getName());
+
+								jniargs.append(", ");
+								jniargs.append(type.getJniType());
+								jniargs.append(" value");
+
+								appendVariantFromJava(cargmapcode, type,
+										"value", "", "return;");
+								// the setter takes its own reference
+								cleanupcode
+										.append("    (*env)->ReleaseStringUTFChars(env, value, c_text_value);\n");
+								cleanupcode
+										.append("    g_variant_unref(c_arg_value);\n");
+							} else {
+								TypeDescriptor base = type.getBase();
+								int aDims = type.getDims();
+								String javaargbasetype = base.getJavaType();
+								String javaargtype = javaargbasetype;
+								String jniargtype = base.getJniType();
+								String ctype = base.getCType();
+								if (javaargbasetype == null || ctype == null) {
+									supported = false;
+									javaargbasetype = "?";
+									ctype = "?";
+									// throw new Error(
+									// "Wire type unsupperted for arg : "
+									// + a.getName()
+									// + " '"
+									// + a.getType()
+									// + "' at "
+									// + objective.getName()
+									// + "->"
+									// + javaMemberName(m
+									// .getName()));
+								}
+								if (aDims >= 2
+										|| (aDims == 1 && "jstring"
+												.equals(jniargtype))) {
+									jniargtype = "jobject";
+									supported = false;
+								} else if (aDims == 1) {
+									javaargtype = javaargbasetype + " []";
+									jniargtype = jniargtype + "Array";
+								}
 
-							if (javaargs.length() > 0)
-								javaargs.append(", ");
-							javaargs.append(javaargtype);
-							javaargs.append(' ');
-							javaargs.append(objective.getName());
-
-							jniargs.append(", ");
-							jniargs.append(jniargtype);
-							jniargs.append(' ');
-							jniargs.append("value");
-
-							cargmapcode.append(ctype);
-							if (ctype.charAt(ctype.length() - 1) != '*')
-								cargmapcode.append(' ');
-							if (aDims == 1) {
-								cargmapcode.append("*");
-							}
-							cargmapcode.append("c_arg_");
-							cargmapcode.append("value");
-							cargmapcode.append(" = ");
-							if (aDims == 0) {
-								String code = wireBasedJava2CAssignFormatMap
-										.get(wireType);
-								if (code != null) {
-									if ("?".equals(code)) {
-										supported = false;
-									}
-									MessageFormat form = new MessageFormat(code);
-									Object[] fArgs = { "value" };
-									cargmapcode.append(form.format(fArgs));
-								} else {
-									// types compatible: direct
-									// assignment
-									cargmapcode.append("value");
-									cargmapcode.append(';');
+								if (javaargs.length() > 0)
+									javaargs.append(", ");
+								javaargs.append(javaargtype);
+								javaargs.append(' ');
+								javaargs.append(objective.getName());
+
+								jniargs.append(", ");
+								jniargs.append(jniargtype);
+								jniargs.append(' ');
+								jniargs.append("value");
+
+								cargmapcode.append(ctype);
+								if (ctype.charAt(ctype.length() - 1) != '*')
+									cargmapcode.append(' ');
+								if (aDims == 1) {
+									cargmapcode.append("*");
 								}
-							} else if (aDims == 1) {
-								cargmapcode.append("(*env)->Get");
-								cargmapcode.append(Character
-										.toUpperCase(javaargbasetype.charAt(0)));
-								cargmapcode.append(javaargbasetype.substring(1));
-								cargmapcode.append("ArrayElements(env, ");
+								cargmapcode.append("c_arg_");
 								cargmapcode.append("value");
-								cargmapcode.append(", 0);");
-							} else {
-								supported = false;
-							}
-							cargmapcode.append("\n    ");
-
-							if (aDims == 0) {
-								String code = wireBasedJava2CAssignFormatMap
-										.get(wireType);
-								if (code != null) {
-									if ("?".equals(code)) {
-										supported = false;
+								cargmapcode.append(" = ");
+								if (aDims == 0) {
+									String code = base.getJava2CAssignFormat();
+									if (code != null) {
+										if ("?".equals(code)) {
+											supported = false;
+										}
+										cargmapcode.append(format(code, "value"));
+									} else {
+										// types compatible: direct
+										// assignment
+										cargmapcode.append("value");
+										cargmapcode.append(';');
 									}
-									MessageFormat form = new MessageFormat(code);
-									Object[] fArgs = { objective.getName() };
-									cleanupcode.append("    ");
-									cleanupcode.append(form.format(fArgs));
-									cleanupcode.append("\n");
+								} else if (aDims == 1) {
+									cargmapcode.append("(*env)->Get");
+									cargmapcode.append(Character
+											.toUpperCase(javaargbasetype.charAt(0)));
+									cargmapcode.append(javaargbasetype.substring(1));
+									cargmapcode.append("ArrayElements(env, ");
+									cargmapcode.append("value");
+									cargmapcode.append(", 0);");
 								} else {
-									// types compatible: direct
-									// assignment
-									cleanupcode.append(objective.getName());
-									cleanupcode.append(";\n");
+									supported = false;
 								}
-							} else if (aDims == 1) {
-								cleanupcode.append("    (*env)->Release");
-								cleanupcode.append(Character
-										.toUpperCase(javaargbasetype.charAt(0)));
-								cleanupcode.append(javaargbasetype.substring(1));
-								cleanupcode.append("ArrayElements(env, ");
-								cleanupcode.append(objective.getName());
-								cleanupcode.append(", c_arg_");
-								cleanupcode.append(objective.getName());
-								cleanupcode.append(", 0);\n");
-							} else {
-								supported = false;
+								cargmapcode.append("\n    ");
 							}
 						}
 
-						p.getParameters().put("method.javareturntype",
+						scope.put("method.javareturntype",
 								javareturntype);
-						p.getParameters().put("method.javaargs",
+						scope.put("method.javaargs",
 								javaargs.toString());
-						p.getParameters().put("method.jnireturntype",
+						scope.put("method.jnireturntype",
 								jnireturntype);
-						p.getParameters().put("method.jniargs",
+						scope.put("method.jniargs",
 								jniargs.toString());
-						p.getParameters().put("method.cargmapcode",
+						scope.put("method.cargmapcode",
 								cargmapcode.toString());
-						p.getParameters().put("method.cleanupcode",
+						scope.put("method.cleanupcode",
 								cleanupcode.toString());
-						p.getParameters().put("method.creturncode",
+						scope.put("method.creturncode",
 								creturncode.toString());
 						if (supported)
-							w.print(p.process(getContent()));
+							p.render(scope.build());
 						else
 							w.print("// property signature unsupported: "
 									+ objective.getName());
@@ -927,106 +710,547 @@ public class CodeGenerationProcessing {
 
 	}
 
-	public Map<String, ObjectiveBlockHandler> getBlockMap() {
-		return blockMap;
+	/**
+	 * Wire type of a method argument resolved to Java, JNI and C types.
+	 */
+	private static final class ArgType {
+		final String name;
+		final String direction;
+		final TypeDescriptor type;
+		final TypeDescriptor base;
+		final int aDims;
+		String javabasetype;
+		String jnitype;
+		String ctype;
+		String cbasetype;
+
+		ArgType(Arg arg, String name) {
+			this.name = name;
+			this.direction = arg.getDirection();
+			this.type = TypeDescriptor.of(arg.getType());
+			this.base = type.getBase();
+			this.aDims = type.getDims();
+		}
+
+		boolean isVariant() {
+			return type.getMarshalling() == TypeDescriptor.Marshalling.VARIANT;
+		}
+	}
+
+	/**
+	 * Java and JNI signature of a method shape, the C marshalling code is
+	 * derived from it on demand.
+	 */
+	private static final class MethodSignature {
+		final List<ArgType> args = new ArrayList<ArgType>();
+		String javareturntype = "void";
+		String jnireturntype = "void";
+		final StringBuffer javaargs = new StringBuffer();
+		final StringBuffer jniargs = new StringBuffer();
+		boolean supported = true;
+
+		/**
+		 * @param names
+		 *            names of the in and out arguments
+		 */
+		MethodSignature(List<Arg> arguments, String[] names) {
+			int index = 0;
+			for (Arg a : arguments) {
+				if ("out".equals(a.getDirection())) {
+					ArgType t = new ArgType(a, names[index++]);
+					if (t.isVariant()) {
+						javareturntype = t.type.getJavaType();
+						jnireturntype = t.type.getJniType();
+						t.jnitype = jnireturntype;
+						t.ctype = t.type.getCType();
+						args.add(t);
+						continue;
+					}
+					javareturntype = t.base.getJavaType();
+					t.javabasetype = javareturntype;
+					jnireturntype = t.base.getJniType();
+					String ctype = t.base.getCType();
+					t.cbasetype = ctype;
+					for (int d = 0; d < t.aDims; d++) {
+						javareturntype = javareturntype + "[]";
+					}
+					if (javareturntype == null || jnireturntype == null
+							|| ctype == null) {
+						supported = false;
+						javareturntype = "?";
+						jnireturntype = "?";
+						ctype = "?";
+					}
+					if (t.aDims >= 2) {
+						jnireturntype = "jobject";
+						supported = false;
+					} else if (t.aDims == 1) {
+						if ("jstring".equals(jnireturntype)) {
+							jnireturntype = "jobjectArray";
+							supported = false;
+						} else if ("jobject".equals(jnireturntype)) {
+							jnireturntype = "jobjectArray";
+							supported = false;
+
+						} else {
+							jnireturntype = jnireturntype + "Array";
+							ctype = ctype + " *";
+						}
+					}
+					t.jnitype = jnireturntype;
+					t.ctype = ctype;
+					args.add(t);
+				} else if ("in".equals(a.getDirection())) {
+					ArgType t = new ArgType(a, names[index++]);
+					String javaargbasetype = t.base.getJavaType();
+					String javaargtype = javaargbasetype;
+					String jniargtype = t.base.getJniType();
+					String ctype = t.base.getCType();
+					if (t.isVariant()) {
+						javaargbasetype = t.type.getJavaType();
+						javaargtype = javaargbasetype;
+						jniargtype = t.type.getJniType();
+						ctype = t.type.getCType();
+					} else if (javaargbasetype == null || ctype == null) {
+						supported = false;
+						javaargbasetype = "?";
+					}
+					if (t.isVariant()) {
+						// passed as text
+					} else if (t.aDims >= 2
+							|| (t.aDims == 1 && "jstring".equals(jniargtype))) {
+						jniargtype = "jobject";
+						supported = false;
+					} else if (t.aDims == 1) {
+						javaargtype = javaargbasetype + " []";
+						jniargtype = jniargtype + "Array";
+					}
+					if (t.aDims == 0
+							&& "?".equals(t.base.getJava2CAssignFormat())) {
+						supported = false;
+					}
+
+					if (javaargs.length() > 0)
+						javaargs.append(", ");
+					javaargs.append(javaargtype);
+					javaargs.append(' ');
+					javaargs.append(t.name);
+
+					jniargs.append(", ");
+					jniargs.append(jniargtype);
+					jniargs.append(' ');
+					jniargs.append(t.name);
+
+					t.javabasetype = javaargbasetype;
+					t.jnitype = jniargtype;
+					t.ctype = ctype;
+					args.add(t);
+				}
+			}
+		}
+
 	}
 
-	// https://dbus.freedesktop.org/doc/dbus-specification.html#type-system
-	// y BYTE
-	// b BOOLEAN
-	// n INT16
-	// q UINT16
-	// i INT32
-	// u UINT32
-	// x INT64
-	// t UINT64
-	// d DOUBLE
-	// h UNIX_FD
-	// s String
-	// o OBJECT_PATH
-	// g SIGNATURE
-	// a Array
-
-	private void initializeWireToJavaTypeMapping() {
-		wireToJavaTypeMap.put("y", "byte");
-		wireToJavaTypeMap.put("b", "boolean");
-		wireToJavaTypeMap.put("n", "short");
-		wireToJavaTypeMap.put("q", "short");
-		wireToJavaTypeMap.put("i", "int");
-		wireToJavaTypeMap.put("u", "int");
-		wireToJavaTypeMap.put("x", "long");
-		wireToJavaTypeMap.put("t", "long");
-		wireToJavaTypeMap.put("d", "double");
-		wireToJavaTypeMap.put("h", "int");
-		wireToJavaTypeMap.put("s", "String");
-		wireToJavaTypeMap.put("o", "Object");
-		// wireToJavaTypeMap.put("g", "Object");
-		// wireToJavaTypeMap.put("e{}", "Object");
+	/**
+	 * C code mapping the arguments of a method shape between JNI and gdbus.
+	 */
+	private static final class MethodMarshalling {
+		final Fragment cparams;
+		final Fragment cargmapcode;
+		final Fragment cleanupcode;
+		final Fragment creturncode;
+
+		MethodMarshalling(MethodSignature signature) {
+			StringBuffer cparams = new StringBuffer();
+			StringBuffer cargmapcode = new StringBuffer();
+			StringBuffer cleanupcode = new StringBuffer();
+			StringBuffer creturncode = new StringBuffer();
+			StringBuffer variantcleanup = new StringBuffer();
+			String failure = returnDefault(signature.jnireturntype);
+
+			for (ArgType t : signature.args) {
+				String name = t.name;
+				String ctype = t.ctype;
+				if ("out".equals(t.direction)) {
+					cargmapcode.append(ctype);
+					if (ctype.charAt(ctype.length() - 1) != '*')
+						cargmapcode.append(' ');
+					cargmapcode.append("_result;\n    ");
+
+					cparams.append("&_result,\n        ");
+
+					if (t.isVariant()) {
+						creturncode.append("    ");
+						creturncode.append(t.jnitype);
+						creturncode.append(" _jniresult = NULL;\n");
+						creturncode.append("    if (_success) {\n");
+						appendVariantToJava(creturncode, "        ",
+								"_result", "_jniresult");
+						creturncode.append("        g_variant_unref(_result);\n");
+						creturncode.append("    }\n");
+						creturncode.append("    return _jniresult;\n");
+						continue;
+					}
+
+					creturncode.append("    ");
+					creturncode.append(t.jnitype);
+					creturncode.append(" _jniresult;\n");
+
+					if (t.aDims == 0) {
+						creturncode.append("    _jniresult = _result;\n");
+					} else if (t.aDims == 1) {
+						creturncode
+								.append("    gint size = sizeof(_result) / sizeof(");
+						creturncode.append(t.cbasetype);
+						creturncode.append(");\n");
+						creturncode.append("    _jniresult = (*env)->New");
+						creturncode.append(Character.toUpperCase(t.javabasetype
+								.charAt(0)));
+						creturncode.append(t.javabasetype.substring(1));
+						creturncode.append("Array(env, size);\n");
+
+						creturncode.append("    if (_jniresult == NULL) {\n");
+						creturncode
+								.append("        return NULL; // out of memory error thrown\n");
+						creturncode.append("    }\n");
+						creturncode.append("    (*env)->Set");
+						creturncode.append(Character.toUpperCase(t.javabasetype
+								.charAt(0)));
+						creturncode.append(t.javabasetype.substring(1));
+						creturncode
+								.append("ArrayRegion(env, _jniresult, 0, size, _result);\n");
+					}
+
+					creturncode.append("    return _jniresult;\n");
+				} else if (t.isVariant()) {
+					appendVariantFromJava(cargmapcode, t.type, name,
+							variantcleanup.toString(), failure);
+					variantcleanup.append("        (*env)->ReleaseStringUTFChars(env, ");
+					variantcleanup.append(name);
+					variantcleanup.append(", c_text_");
+					variantcleanup.append(name);
+					variantcleanup.append(");\n");
+					variantcleanup.append("        g_variant_unref(c_arg_");
+					variantcleanup.append(name);
+					variantcleanup.append(");\n");
+
+					cparams.append("c_arg_");
+					cparams.append(name);
+					cparams.append(",\n        ");
+
+					cleanupcode.append("    (*env)->ReleaseStringUTFChars(env, ");
+					cleanupcode.append(name);
+					cleanupcode.append(", c_text_");
+					cleanupcode.append(name);
+					cleanupcode.append(");\n");
+					cleanupcode.append("    if (c_arg_");
+					cleanupcode.append(name);
+					cleanupcode.append(" != NULL)\n        g_variant_unref(c_arg_");
+					cleanupcode.append(name);
+					cleanupcode.append(");\n");
+				} else {
+					cargmapcode.append(ctype);
+					if (ctype != null && ctype.charAt(ctype.length() - 1) != '*')
+						cargmapcode.append(' ');
+					if (t.aDims == 1) {
+						cargmapcode.append("*");
+					}
+					cargmapcode.append("c_arg_");
+					cargmapcode.append(name);
+					cargmapcode.append(" = ");
+					if (t.aDims == 0) {
+						String code = t.base.getJava2CAssignFormat();
+						if (code != null) {
+							cargmapcode.append(format(code, name));
+						} else {
+							// types compatible: direct
+							// assignment
+							cargmapcode.append(name);
+							cargmapcode.append(';');
+						}
+					} else if (t.aDims == 1) {
+						cargmapcode.append("(*env)->Get");
+						cargmapcode.append(Character.toUpperCase(t.javabasetype
+								.charAt(0)));
+						cargmapcode.append(t.javabasetype.substring(1));
+						cargmapcode.append("ArrayElements(env, ");
+						cargmapcode.append(name);
+						cargmapcode.append(", 0);");
+					}
+					cargmapcode.append("\n    ");
+
+					if (isPrimitiveJniType(t.jnitype))
+						cparams.append("&");
+					cparams.append("c_arg_");
+					cparams.append(name);
+					cparams.append(",\n        ");
+
+					if (t.aDims == 0) {
+						String code = t.base.getJava2CAssignFormat();
+						if (code != null) {
+							cleanupcode.append("    ");
+							cleanupcode.append(format(code, name));
+							cleanupcode.append("\n");
+						} else {
+							// types compatible: direct
+							// assignment
+							cleanupcode.append(name);
+							cleanupcode.append(";\n");
+						}
+					} else if (t.aDims == 1) {
+						cleanupcode.append("    (*env)->Release");
+						cleanupcode.append(Character.toUpperCase(t.javabasetype
+								.charAt(0)));
+						cleanupcode.append(t.javabasetype.substring(1));
+						cleanupcode.append("ArrayElements(env, ");
+						cleanupcode.append(name);
+						cleanupcode.append(", c_arg_");
+						cleanupcode.append(name);
+						cleanupcode.append(", 0);\n");
+					}
+				}
+			}
+
+			this.cparams = new Fragment(cparams.toString());
+			this.cargmapcode = new Fragment(cargmapcode.toString());
+			this.cleanupcode = new Fragment(cleanupcode.toString());
+			this.creturncode = new Fragment(creturncode.toString());
+		}
 	}
 
-	private void initializeWireToJniTypeMapping() {
-		wireToJniTypeMap.put("y", "jbyte");
-		wireToJniTypeMap.put("b", "jboolean");
-		wireToJniTypeMap.put("n", "jshort");
-		wireToJniTypeMap.put("q", "jshort");
-		wireToJniTypeMap.put("i", "jint");
-		wireToJniTypeMap.put("u", "jint");
-		wireToJniTypeMap.put("x", "jlong");
-		wireToJniTypeMap.put("t", "jlong");
-		wireToJniTypeMap.put("d", "jdouble");
-		wireToJniTypeMap.put("h", "jint");
-		wireToJniTypeMap.put("s", "jstring");
-		wireToJniTypeMap.put("o", "jobject");
-		// wireToJniTypeMap.put("g", "jobject");
+	/**
+	 * Code of a method shape, i.e. the directions and types of its arguments.
+	 * Built once per shape with placeholders for the argument names and shared
+	 * by all methods of that shape, which only substitute their names.
+	 */
+	private static final class MethodPlan {
+		private static final ConcurrentMap<String, MethodPlan> plans = new ConcurrentHashMap<String, MethodPlan>();
+
+		final boolean supported;
+		final String javareturntype;
+		final String jnireturntype;
+		final Fragment javaargs;
+		final Fragment jniargs;
+		private final MethodSignature signature;
+		private volatile MethodMarshalling marshalling;
+
+		private MethodPlan(MethodSignature signature) {
+			this.signature = signature;
+			this.supported = signature.supported;
+			this.javareturntype = signature.javareturntype;
+			this.jnireturntype = signature.jnireturntype;
+			this.javaargs = new Fragment(signature.javaargs.toString());
+			this.jniargs = new Fragment(signature.jniargs.toString());
+		}
+
+		static MethodPlan of(Method m) {
+			StringBuilder key = new StringBuilder();
+			int count = 0;
+			for (Arg a : m.getArgs()) {
+				if ("in".equals(a.getDirection())
+						|| "out".equals(a.getDirection())) {
+					key.append(a.getDirection()).append(' ')
+							.append(a.getType()).append(Fragment.SLOT);
+					count++;
+				}
+			}
+			String shape = key.toString();
+			MethodPlan plan = plans.get(shape);
+			if (plan == null) {
+				String[] slots = new String[count];
+				for (int i = 0; i < count; i++) {
+					slots[i] = Fragment.slot(i);
+				}
+				MethodPlan created = new MethodPlan(new MethodSignature(
+						m.getArgs(), slots));
+				plan = plans.putIfAbsent(shape, created);
+				if (plan == null) {
+					plan = created;
+				}
+			}
+			return plan;
+		}
+
+		/**
+		 * @return names of the in and out arguments of a method
+		 */
+		static String[] names(Method m) {
+			List<String> names = new ArrayList<String>();
+			for (Arg a : m.getArgs()) {
+				if ("in".equals(a.getDirection())
+						|| "out".equals(a.getDirection())) {
+					names.add(a.getName());
+				}
+			}
+			return names.toArray(new String[names.size()]);
+		}
+
+		MethodMarshalling marshalling() {
+			MethodMarshalling result = marshalling;
+			if (result == null) {
+				result = new MethodMarshalling(signature);
+				marshalling = result;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Code with placeholders for argument names.
+	 */
+	static final class Fragment {
+		static final char SLOT = '\0';
+
+		private final String[] parts;
+		private final int[] slots;
+
+		Fragment(String code) {
+			List<String> parts = new ArrayList<String>();
+			List<Integer> slots = new ArrayList<Integer>();
+			int from = 0;
+			int start;
+			while ((start = code.indexOf(SLOT, from)) >= 0) {
+				int end = code.indexOf(SLOT, start + 1);
+				parts.add(code.substring(from, start));
+				slots.add(Integer.valueOf(code.substring(start + 1, end)));
+				from = end + 1;
+			}
+			parts.add(code.substring(from));
+			this.parts = parts.toArray(new String[parts.size()]);
+			this.slots = new int[slots.size()];
+			for (int i = 0; i < this.slots.length; i++) {
+				this.slots[i] = slots.get(i);
+			}
+		}
+
+		/**
+		 * @return placeholder for the name of the argument at index
+		 */
+		static String slot(int index) {
+			return SLOT + Integer.toString(index) + SLOT;
+		}
+
+		String render(String[] names) {
+			if (slots.length == 0) {
+				return parts[0];
+			}
+			StringBuilder b = new StringBuilder();
+			for (int i = 0; i < slots.length; i++) {
+				b.append(parts[i]);
+				b.append(names[slots[i]]);
+			}
+			b.append(parts[slots.length]);
+			return b.toString();
+		}
 	}
 
-	private void initializeWireToCTypeMapping() {
-		wireToCTypeMap.put("y", "gchar");
-		wireToCTypeMap.put("b", "gboolean");
-		wireToCTypeMap.put("n", "gint16");
-		wireToCTypeMap.put("q", "guint16");
-		wireToCTypeMap.put("i", "gint32");
-		wireToCTypeMap.put("u", "guint32");
-		wireToCTypeMap.put("x", "gint64");
-		wireToCTypeMap.put("t", "guint64");
-		wireToCTypeMap.put("d", "gdouble");
-		wireToCTypeMap.put("h", "guint32");
-		wireToCTypeMap.put("s", "const gchar *");
-		wireToCTypeMap.put("o", "const gchar *");
-		wireToCTypeMap.put("g", "?");
+	/**
+	 * @return the pattern with {0} replaced by the value
+	 */
+	private static String format(String pattern, String value) {
+		return pattern.replace("{0}", value);
 	}
 
-	private void initializeWireBasedJava2CAssignFormatMapping() {
-		wireBasedJava2CAssignFormatMap.put("s",
-				"(*env)->GetStringUTFChars(env, {0}, NULL);");
-		wireBasedJava2CAssignFormatMap.put("o",
-				"(*env)->GetStringUTFChars(env, {0}, NULL);"); // g_variant_new_object_path((*env)->GetStringUTFChars(env,
-																// {0}, NULL));
-																// g_print(\"g_variant_is_object_path
-																// : %s\",
-																// (*env)->GetStringUTFChars(env,
-																// {0}, NULL));
-		wireBasedJava2CAssignFormatMap.put("g", "?");
+	private static ForBlock forBlock(Block p) {
+		if (!(p instanceof ForBlock)) {
+			throw new Error("No processing objective for " + p.getBlockname()
+					+ " (" + p.getClass().getName() + ")");
+		}
+		return (ForBlock) p;
 	}
 
-	private void initializeWireBasedJava2CCleanupFormatMapping() {
-		wireBasedJava2CCleanupFormatMap.put("s",
-				"(*env)->ReleaseStringUTFChars(env, {0}, c_arg_{0});");
-		wireBasedJava2CCleanupFormatMap.put("g", "; // ?");
+	/**
+	 * Append the conversion of a Java string in GVariant text format to the
+	 * GVariant c_arg_name of the given type, and keep the string in
+	 * c_text_name until it is released. A string that can't be parsed throws
+	 * an IllegalArgumentException and returns before the D-Bus call.
+	 * 
+	 * @param release
+	 *            code releasing the variants converted before this one
+	 * @param failure
+	 *            return statement of the JNI function
+	 */
+	private static void appendVariantFromJava(StringBuffer code,
+			TypeDescriptor type, String name, String release, String failure) {
+		code.append("const gchar *c_text_");
+		code.append(name);
+		code.append(" = (*env)->GetStringUTFChars(env, ");
+		code.append(name);
+		code.append(", NULL);\n    ");
+		code.append("GError *c_error_");
+		code.append(name);
+		code.append(" = NULL;\n    ");
+		code.append("GVariant *c_arg_");
+		code.append(name);
+		code.append(" = g_variant_parse(G_VARIANT_TYPE(\"");
+		code.append(type.getSignature());
+		code.append("\"), c_text_");
+		code.append(name);
+		code.append(", NULL, NULL, &c_error_");
+		code.append(name);
+		code.append(");\n    ");
+		code.append("if (c_arg_");
+		code.append(name);
+		code.append(" == NULL) {\n");
+		code.append("        (*env)->ReleaseStringUTFChars(env, ");
+		code.append(name);
+		code.append(", c_text_");
+		code.append(name);
+		code.append(");\n");
+		code.append(release);
+		code.append("        jclass _eClass = (*env)->FindClass(env, \"java/lang/IllegalArgumentException\");\n");
+		code.append("        (*env)->ThrowNew(env, _eClass, c_error_");
+		code.append(name);
+		code.append("->message);\n");
+		code.append("        (*env)->DeleteLocalRef(env, _eClass);\n");
+		code.append("        g_error_free(c_error_");
+		code.append(name);
+		code.append(");\n");
+		code.append("        ");
+		code.append(failure);
+		code.append("\n    }\n    ");
+	}
+
+	/**
+	 * @return return statement of a JNI function that failed, the Java
+	 *         exception is thrown already
+	 */
+	private static String returnDefault(String jnireturntype) {
+		if ("void".equals(jnireturntype)) {
+			return "return;";
+		}
+		if (isPrimitiveJniType(jnireturntype)
+				&& !jnireturntype.endsWith("Array")) {
+			return "return 0;";
+		}
+		return "return NULL;";
 	}
 
-	private void initializeWireBasedC2JavaAssignFormatMapping() {
-		wireBasedC2JavaAssignFormatMap.put("s",
-				"(*env)->NewStringUTF(env, {0});");
-		wireBasedC2JavaAssignFormatMap.put("o", "?");
-		wireBasedC2JavaAssignFormatMap.put("g", "?");
+	/**
+	 * Append the conversion of a GVariant to a Java string in GVariant text
+	 * format.
+	 * 
+	 * @param target
+	 *            declaration or variable the string is assigned to
+	 */
+	private static void appendVariantToJava(StringBuffer code, String indent,
+			String variant, String target) {
+		code.append(indent);
+		code.append("gchar *_text = g_variant_print(");
+		code.append(variant);
+		code.append(", TRUE);\n");
+		code.append(indent);
+		code.append(target);
+		code.append(" = (*env)->NewStringUTF(env, _text);\n");
+		code.append(indent);
+		code.append("g_free(_text);\n");
 	}
 
 	/**
 	 * @param jniargtype
 	 * @return
 	 */
-	private boolean isPrimitiveJniType(String jniargtype) {
+	private static boolean isPrimitiveJniType(String jniargtype) {
 		return !("jobject".equals(jniargtype) || "jstring".equals(jniargtype));
 	}
 
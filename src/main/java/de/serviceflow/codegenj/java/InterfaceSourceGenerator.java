@@ -16,15 +16,17 @@
 package de.serviceflow.codegenj.java;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintWriter;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
+import de.serviceflow.codegenj.CompiledTemplate;
+import de.serviceflow.codegenj.GenerationManifest;
 import de.serviceflow.codegenj.Naming;
 import de.serviceflow.codegenj.Node;
+import de.serviceflow.codegenj.OutputFile;
+import de.serviceflow.codegenj.Parameters;
 import de.serviceflow.codegenj.TemplateBlock;
-import de.serviceflow.codegenj.TemplateParser;
+import de.serviceflow.codegenj.TemplateCache;
 import de.serviceflow.codegenj.Node.Interface;
 import de.serviceflow.codegenj.Node.Interface.Member;
 import de.serviceflow.codegenj.Node.Interface.Member.Annotation;
@@ -34,14 +36,26 @@ import de.serviceflow.codegenj.Node.Interface.Member.Annotation;
  * tokens like ###for x### .... ###end###
  */
 public class InterfaceSourceGenerator {
+	private static final String[] TEMPLATES = {
+			"template/java/interface_java.txt",
+			"template/java/skeleton_java.txt",
+			"template/java/skeleton_c.txt",
+			"template/java/interfaceproxy_java.txt",
+			"template/java/interfaceskeleton_java.txt",
+			"template/java/interfaceproxy_c.txt",
+			"template/java/interfaceskeleton_c.txt" };
+	private static final String[] PARAMETERS = {
+			"busname", "iprefix", "library", "node.name" };
+
 	private final Interface interfaceDef;
 	private final String destination;
-	private final Map<String, String> parameters;
+	private final Parameters parameters;
 	private String fileBaseName = null;
+	private final List<File> outputs = new ArrayList<File>();
 	private boolean isSkeleton = false;
 
 	public InterfaceSourceGenerator(Interface interfaceDef,
-			Map<String, String> parameters, String destination) {
+			Parameters parameters, String destination) {
 		this.interfaceDef = interfaceDef;
 		this.parameters = parameters;
 		this.destination = destination;
@@ -51,16 +65,12 @@ public class InterfaceSourceGenerator {
 		String uname = parameters.get("interface.uname");
 		fileBaseName = Naming.javaClassName(uname);
 
-		for (Annotation a : interfaceDef.getAnnotations()) {
-			if ("de.serviceflow.codegenj.SkeletonAPI".equals(a.getName())) {
-				isSkeleton = true;
-			}
-		}
+		isSkeleton = interfaceDef.isSkeleton();
 	}
 
 	public void generate() {
-		TemplateParser t;
-		PrintWriter w;
+		CompiledTemplate t;
+		OutputFile w;
 
 		String ppath = packagePath();
 		String dir = destination + "/generated";
@@ -74,98 +84,73 @@ public class InterfaceSourceGenerator {
 		 * Create Java Interface file
 		 */
 
-		t = new TemplateParser("template/java/interface_java.txt");
-		t.open();
-		try {
-			w = new PrintWriter(new FileOutputStream(dir + "/" + ppath
-					+ fileBaseName + ".java"));
-		} catch (FileNotFoundException e) {
-			throw new Error("Can't create output file: "
-					+ e.getLocalizedMessage());
-		}
+		t = TemplateCache.get("template/java/interface_java.txt");
+		w = new OutputFile(dir + "/" + ppath
+				+ fileBaseName + ".java");
 
 		try {
 			new TemplateBlock(interfaceDef, parameters, t, w).process();
+			w.commit();
+			outputs.add(w.getFile());
 		} finally {
 			w.close();
 		}
-		t.close();
 
 		/**
 		 * Create Java Proxy/Server/Skeleton file
 		 */
 		if (isSkeleton) {
-			t = new TemplateParser("template/java/skeleton_java.txt");
-			t.open();
-			try {
-				w = new PrintWriter(new FileOutputStream(dir + "/" + ppath
-						+ fileBaseName + "CB.java"));
-			} catch (FileNotFoundException e) {
-				throw new Error("Can't create output file: "
-						+ e.getLocalizedMessage());
-			}
+			t = TemplateCache.get("template/java/skeleton_java.txt");
+			w = new OutputFile(dir + "/" + ppath
+					+ fileBaseName + "CB.java");
 
 			try {
 				new TemplateBlock(interfaceDef, parameters, t, w).process();
+				w.commit();
+				outputs.add(w.getFile());
 			} finally {
 				w.close();
 			}
-			t.close();
 
 			/**
 			 * Create .c file. The .h file can be generated from compiled class
 			 * file by javah tool.
 			 */
 
-			t = new TemplateParser("template/java/skeleton_c.txt");
-			t.open();
-			try {
-				w = new PrintWriter(new FileOutputStream(jnidir + "/"
-						+ fileBaseName + "CB.c"));
-			} catch (FileNotFoundException e) {
-				throw new Error("Can't create output file: "
-						+ e.getLocalizedMessage());
-			}
+			t = TemplateCache.get("template/java/skeleton_c.txt");
+			w = new OutputFile(jnidir + "/"
+					+ fileBaseName + "CB.c");
 			w.println("// " + interfaceDef.getName() + "CB.c");
 			try {
 				new TemplateBlock(interfaceDef, parameters, t, w).process();
+				w.commit();
+				outputs.add(w.getFile());
 			} finally {
 				w.close();
 			}
-			t.close();
 		} else {
-			t = new TemplateParser("template/java/interfaceproxy_java.txt");
-			t.open();
-			try {
-				w = new PrintWriter(new FileOutputStream(dir + "/" + ppath
-						+ fileBaseName + "Proxy.java"));
-			} catch (FileNotFoundException e) {
-				throw new Error("Can't create output file: "
-						+ e.getLocalizedMessage());
-			}
+			t = TemplateCache.get("template/java/interfaceproxy_java.txt");
+			w = new OutputFile(dir + "/" + ppath
+					+ fileBaseName + "Proxy.java");
 			try {
 				new TemplateBlock(interfaceDef, parameters, t, w).process();
+				w.commit();
+				outputs.add(w.getFile());
 			} finally {
 				w.close();
 			}
-			t.close();
 
 			
-			t = new TemplateParser("template/java/interfaceskeleton_java.txt");
-			t.open();
-			try {
-				w = new PrintWriter(new FileOutputStream(dir + "/" + ppath
-						+ fileBaseName + "Skeleton.java"));
-			} catch (FileNotFoundException e) {
-				throw new Error("Can't create output file: "
-						+ e.getLocalizedMessage());
-			}
+			t = TemplateCache.get("template/java/interfaceskeleton_java.txt");
+			w = new OutputFile(dir + "/" + ppath
+					+ fileBaseName + "Skeleton.java");
 			try {
 				new TemplateBlock(interfaceDef, parameters, t, w).process();
+				w.commit();
+				outputs.add(w.getFile());
 			} finally {
 				w.close();
 			}
-			t.close();
 
 
 			/**
@@ -173,39 +158,29 @@ public class InterfaceSourceGenerator {
 			 * file by javah tool.
 			 */
 
-			t = new TemplateParser("template/java/interfaceproxy_c.txt");
-			t.open();
-			try {
-				w = new PrintWriter(new FileOutputStream(jnidir + "/"
-						+ fileBaseName + "Proxy.c"));
-			} catch (FileNotFoundException e) {
-				throw new Error("Can't create output file: "
-						+ e.getLocalizedMessage());
-			}
+			t = TemplateCache.get("template/java/interfaceproxy_c.txt");
+			w = new OutputFile(jnidir + "/"
+					+ fileBaseName + "Proxy.c");
 			w.println("// " + interfaceDef.getName() + "Proxy.c");
 			try {
 				new TemplateBlock(interfaceDef, parameters, t, w).process();
+				w.commit();
+				outputs.add(w.getFile());
 			} finally {
 				w.close();
 			}
-			t.close();
 			
-			t = new TemplateParser("template/java/interfaceskeleton_c.txt");
-			t.open();
-			try {
-				w = new PrintWriter(new FileOutputStream(jnidir + "/"
-						+ fileBaseName + "Skeleton.c"));
-			} catch (FileNotFoundException e) {
-				throw new Error("Can't create output file: "
-						+ e.getLocalizedMessage());
-			}
+			t = TemplateCache.get("template/java/interfaceskeleton_c.txt");
+			w = new OutputFile(jnidir + "/"
+					+ fileBaseName + "Skeleton.c");
 			w.println("// " + interfaceDef.getName() + "Skeleton.c");
 			try {
 				new TemplateBlock(interfaceDef, parameters, t, w).process();
+				w.commit();
+				outputs.add(w.getFile());
 			} finally {
 				w.close();
 			}
-			t.close();
 			
 		}
 
@@ -228,25 +203,49 @@ public class InterfaceSourceGenerator {
 		return packagePath.toString();
 	}
 
+	/**
+	 * Add the templates of the generated files.
+	 */
+	public static void fingerprintTemplates(GenerationManifest.Fingerprint f) {
+		f.addTemplates(TEMPLATES);
+	}
+
+	/**
+	 * Add everything the generated files depend on.
+	 */
+	public void fingerprint(GenerationManifest.Fingerprint f) {
+		f.addTemplates(TEMPLATES);
+		for (String name : PARAMETERS) {
+			f.add(parameters.get(name));
+		}
+		f.add(interfaceDef);
+	}
+
+	/**
+	 * @return files written or found unchanged by {@link #generate()}.
+	 */
+	public List<File> getOutputFiles() {
+		return outputs;
+	}
+
 	public void close() {
 		// String objectfilter = parameters.get("objectmanager.objectfilter");
 
-		for (Annotation a : interfaceDef.getAnnotations()) {
-			if ("de.serviceflow.codegenj.CollectorAPI".equals(a.getName())) {
-				String apiValue = a.getValue();
-				int sep = apiValue.indexOf('#');
-				if (sep < 0) {
-					throw new Error(
-							"Syntax Error at annotation de.serviceflow.codegenj.CollectorAPI for interface "
-									+ interfaceDef.getName());
-				}
-				String apiClass = apiValue.substring(0, sep);
-				String apiMethod = apiValue.substring(sep + 1);
-				if (ObjectManagerGenerator.OM_INAME.equals(apiClass)) {
-					// if (objectfilter.length()>0)
-					// objectfilter = objectfilter + ",";
-					// objectfilter = objectfilter + interfaceDef.getName();
-				}
+		for (Annotation a : interfaceDef
+				.getAnnotations("de.serviceflow.codegenj.CollectorAPI")) {
+			String apiValue = a.getValue();
+			int sep = apiValue.indexOf('#');
+			if (sep < 0) {
+				throw new Error(
+						"Syntax Error at annotation de.serviceflow.codegenj.CollectorAPI for interface "
+								+ interfaceDef.getName());
+			}
+			String apiClass = apiValue.substring(0, sep);
+			String apiMethod = apiValue.substring(sep + 1);
+			if (ObjectManagerGenerator.OM_INAME.equals(apiClass)) {
+				// if (objectfilter.length()>0)
+				// objectfilter = objectfilter + ",";
+				// objectfilter = objectfilter + interfaceDef.getName();
 			}
 		}
 
@@ -16,26 +16,35 @@
 package de.serviceflow.codegenj.java;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintWriter;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
+import de.serviceflow.codegenj.CompiledTemplate;
+import de.serviceflow.codegenj.GenerationManifest;
 import de.serviceflow.codegenj.Node;
+import de.serviceflow.codegenj.OutputFile;
+import de.serviceflow.codegenj.Parameters;
 import de.serviceflow.codegenj.TemplateBlock;
-import de.serviceflow.codegenj.TemplateParser;
+import de.serviceflow.codegenj.TemplateCache;
 
 /**
  * Java Code Generation processor executed fir each interface. Search f�r block
  * tokens like ###for x### .... ###end###
  */
 public class MakefileGenerator {
+	private static final String[] TEMPLATES = {
+			"template/java/Makefile.txt" };
+	private static final String[] PARAMETERS = {
+			"busname", "iprefix", "library", "headerfiles", "classlist",
+			"objfiles", "xmlfile" };
+
 	private final Node nodeDef;
 	private final String destination;
-	private final Map<String, String> parameters;
+	private final Parameters parameters;
 	private String fileBaseName = null;
+	private final List<File> outputs = new ArrayList<File>();
 
-	public MakefileGenerator(Node nodeDef, Map<String, String> parameters, String destination) {
+	public MakefileGenerator(Node nodeDef, Parameters parameters, String destination) {
 		this.nodeDef = nodeDef;
 		this.parameters = parameters;
 		this.destination = destination;
@@ -46,26 +55,46 @@ public class MakefileGenerator {
 	}
 
 	public void generate() {
-		TemplateParser t;
-		PrintWriter w;
+		CompiledTemplate t;
+		OutputFile w;
 
 		String jnidir = destination + "/jni";
 		new File(jnidir).mkdirs();
 
-		t = new TemplateParser("template/java/Makefile.txt");
-		t.open();
-		try {
-			w = new PrintWriter(new FileOutputStream(jnidir + "/" + fileBaseName));
-		} catch (FileNotFoundException e) {
-			throw new Error("Can't create output file: " + e.getLocalizedMessage());
-		}
+		t = TemplateCache.get("template/java/Makefile.txt");
+		w = new OutputFile(jnidir + "/" + fileBaseName);
 
 		try {
 			new TemplateBlock(nodeDef, parameters, t, w).process();
+			w.commit();
+			outputs.add(w.getFile());
 		} finally {
 			w.close();
 		}
-		t.close();
+	}
+
+	/**
+	 * Add the templates of the generated files.
+	 */
+	public static void fingerprintTemplates(GenerationManifest.Fingerprint f) {
+		f.addTemplates(TEMPLATES);
+	}
+
+	/**
+	 * Add everything the generated files depend on.
+	 */
+	public void fingerprint(GenerationManifest.Fingerprint f) {
+		f.addTemplates(TEMPLATES);
+		for (String name : PARAMETERS) {
+			f.add(parameters.get(name));
+		}
+	}
+
+	/**
+	 * @return files written or found unchanged by {@link #generate()}.
+	 */
+	public List<File> getOutputFiles() {
+		return outputs;
 	}
 
 	public void close() {
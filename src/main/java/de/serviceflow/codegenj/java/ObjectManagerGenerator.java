@@ -16,28 +16,38 @@
 package de.serviceflow.codegenj.java;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintWriter;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
+import de.serviceflow.codegenj.CompiledTemplate;
+import de.serviceflow.codegenj.GenerationManifest;
 import de.serviceflow.codegenj.Node;
+import de.serviceflow.codegenj.OutputFile;
+import de.serviceflow.codegenj.Parameters;
 import de.serviceflow.codegenj.TemplateBlock;
-import de.serviceflow.codegenj.TemplateParser;
+import de.serviceflow.codegenj.TemplateCache;
 
 /**
  * Java Code Generation processor executed fir each interface. Search f�r block
  * tokens like ###for x### .... ###end###
  */
 public class ObjectManagerGenerator {
+	private static final String[] TEMPLATES = {
+			"template/java/ObjectManager_c.txt",
+			"template/java/ObjectManager_java.txt" };
+	private static final String[] PARAMETERS = {
+			"busname", "iprefix", "library", "api.init", "api.add",
+			"api.remove" };
+
 	public static final String OM_INAME = "de.serviceflow.codegenj.ObjectManager";
 	
 	private final Node nodeDef;
 	private final String destination;
-	private final Map<String, String> parameters;
+	private final Parameters parameters;
 	private String fileBaseName = null;
+	private final List<File> outputs = new ArrayList<File>();
 
-	public ObjectManagerGenerator(Node nodeDef, Map<String, String> parameters, String destination) {
+	public ObjectManagerGenerator(Node nodeDef, Parameters parameters, String destination) {
 		this.nodeDef = nodeDef;
 		this.parameters = parameters;
 		this.destination = destination;
@@ -48,8 +58,8 @@ public class ObjectManagerGenerator {
 	}
 
 	public void generate() {
-		TemplateParser t;
-		PrintWriter w;
+		CompiledTemplate t;
+		OutputFile w;
 
 		String ppath = packagePath();
 		String dir = destination + "/generated";
@@ -63,39 +73,29 @@ public class ObjectManagerGenerator {
 		/*
 		 * ObjectManager.c
 		 */
-		t = new TemplateParser("template/java/ObjectManager_c.txt");
-		t.open();
-		try {
-			w = new PrintWriter(new FileOutputStream(jnidir + "/" + fileBaseName + ".c"));
-		} catch (FileNotFoundException e) {
-			throw new Error("Can't create output file: " + e.getLocalizedMessage());
-		}
+		t = TemplateCache.get("template/java/ObjectManager_c.txt");
+		w = new OutputFile(jnidir + "/" + fileBaseName + ".c");
 
 		try {
 			new TemplateBlock(nodeDef, parameters, t, w).process();
+			w.commit();
+			outputs.add(w.getFile());
 		} finally {
 			w.close();
 		}
-		t.close();
 		
 		/*
 		 * ObjectManager.java
 		 */
-		t = new TemplateParser("template/java/ObjectManager_java.txt");
-		t.open();
+		t = TemplateCache.get("template/java/ObjectManager_java.txt");
+		w = new OutputFile(dir + "/" + ppath + fileBaseName + ".java");
 		try {
-			w = new PrintWriter(new FileOutputStream(dir + "/" + ppath + fileBaseName + ".java"));
-		} catch (FileNotFoundException e) {
-			throw new Error("Can't create output file: " + e.getLocalizedMessage());
-		}
-		parameters.put("classname", "de.serviceflow.codegenj.ObjectManager");
-		try {
-			new TemplateBlock(nodeDef, parameters, t, w).process();
+			new TemplateBlock(nodeDef, parameters.with("classname", OM_INAME), t, w).process();
+			w.commit();
+			outputs.add(w.getFile());
 		} finally {
 			w.close();
 		}
-		t.close();
-		parameters.remove("classname");
 		
 	}
 	
@@ -117,6 +117,31 @@ public class ObjectManagerGenerator {
 
 	
 
+	/**
+	 * Add the templates of the generated files.
+	 */
+	public static void fingerprintTemplates(GenerationManifest.Fingerprint f) {
+		f.addTemplates(TEMPLATES);
+	}
+
+	/**
+	 * Add everything the generated files depend on.
+	 */
+	public void fingerprint(GenerationManifest.Fingerprint f) {
+		f.addTemplates(TEMPLATES);
+		for (String name : PARAMETERS) {
+			f.add(parameters.get(name));
+		}
+		f.addCollectorMap(nodeDef.getInterfaceCollectorMap());
+	}
+
+	/**
+	 * @return files written or found unchanged by {@link #generate()}.
+	 */
+	public List<File> getOutputFiles() {
+		return outputs;
+	}
+
 	public void close() {
 	}
 
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2016 Oliver Rode
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.serviceflow.codegenj.java;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * D-Bus type of a single complete signature, with its Java, JNI and C types
+ * and the way its values are marshalled by the JNI layer. Descriptors are
+ * immutable and interned: {@link #of(String)} parses each signature once and
+ * returns the same descriptor for it afterwards.
+ * 
+ * @see <a href="https://dbus.freedesktop.org/doc/dbus-specification.html#type-system">D-Bus type system</a>
+ */
+public final class TypeDescriptor {
+
+	/**
+	 * How values of a type are passed between Java and gdbus.
+	 */
+	public enum Marshalling {
+		/** basic type, assigned as is */
+		DIRECT,
+		/** string or object path, converted with a format */
+		STRING,
+		/** array of a basic type, mapped to a Java array */
+		ARRAY,
+		/**
+		 * container type, a GVariant in C and its text format in Java
+		 */
+		VARIANT,
+		/** no mapping, or not a valid signature */
+		UNSUPPORTED
+	}
+
+	private static final String BASIC_TYPES = "ybnqiuxtdhsog";
+
+	private static final Map<String, String> JAVA_TYPES = new HashMap<String, String>();
+	private static final Map<String, String> JNI_TYPES = new HashMap<String, String>();
+	private static final Map<String, String> C_TYPES = new HashMap<String, String>();
+	private static final Map<String, String> JAVA2C_ASSIGN_FORMATS = new HashMap<String, String>();
+	private static final Map<String, String> C2JAVA_ASSIGN_FORMATS = new HashMap<String, String>();
+
+	static {
+		JAVA_TYPES.put("y", "byte");
+		JAVA_TYPES.put("b", "boolean");
+		JAVA_TYPES.put("n", "short");
+		JAVA_TYPES.put("q", "short");
+		JAVA_TYPES.put("i", "int");
+		JAVA_TYPES.put("u", "int");
+		JAVA_TYPES.put("x", "long");
+		JAVA_TYPES.put("t", "long");
+		JAVA_TYPES.put("d", "double");
+		JAVA_TYPES.put("h", "int");
+		JAVA_TYPES.put("s", "String");
+		JAVA_TYPES.put("o", "Object");
+
+		JNI_TYPES.put("y", "jbyte");
+		JNI_TYPES.put("b", "jboolean");
+		JNI_TYPES.put("n", "jshort");
+		JNI_TYPES.put("q", "jshort");
+		JNI_TYPES.put("i", "jint");
+		JNI_TYPES.put("u", "jint");
+		JNI_TYPES.put("x", "jlong");
+		JNI_TYPES.put("t", "jlong");
+		JNI_TYPES.put("d", "jdouble");
+		JNI_TYPES.put("h", "jint");
+		JNI_TYPES.put("s", "jstring");
+		JNI_TYPES.put("o", "jobject");
+
+		C_TYPES.put("y", "gchar");
+		C_TYPES.put("b", "gboolean");
+		C_TYPES.put("n", "gint16");
+		C_TYPES.put("q", "guint16");
+		C_TYPES.put("i", "gint32");
+		C_TYPES.put("u", "guint32");
+		C_TYPES.put("x", "gint64");
+		C_TYPES.put("t", "guint64");
+		C_TYPES.put("d", "gdouble");
+		C_TYPES.put("h", "guint32");
+		C_TYPES.put("s", "const gchar *");
+		C_TYPES.put("o", "const gchar *");
+		C_TYPES.put("g", "?");
+
+		JAVA2C_ASSIGN_FORMATS.put("s",
+				"(*env)->GetStringUTFChars(env, {0}, NULL);");
+		JAVA2C_ASSIGN_FORMATS.put("o",
+				"(*env)->GetStringUTFChars(env, {0}, NULL);");
+		JAVA2C_ASSIGN_FORMATS.put("g", "?");
+
+		C2JAVA_ASSIGN_FORMATS.put("s", "(*env)->NewStringUTF(env, {0});");
+		C2JAVA_ASSIGN_FORMATS.put("o", "?");
+		C2JAVA_ASSIGN_FORMATS.put("g", "?");
+	}
+
+	private static final ConcurrentMap<String, TypeDescriptor> cache = new ConcurrentHashMap<String, TypeDescriptor>();
+
+	private final String signature;
+	private final TypeDescriptor element;
+	private final List<TypeDescriptor> members;
+	private final TypeDescriptor base;
+	private final int dims;
+	private final Marshalling marshalling;
+	private final String javaType;
+	private final String jniType;
+	private final String cType;
+	private final String java2CAssignFormat;
+	private final String c2JavaAssignFormat;
+
+	/**
+	 * @param signature
+	 *            a single complete type
+	 * @return the descriptor of the type. Invalid signatures get a descriptor
+	 *         with {@link Marshalling#UNSUPPORTED}.
+	 */
+	public static TypeDescriptor of(String signature) {
+		TypeDescriptor t = cache.get(signature);
+		if (t != null && !t.isDictEntry()) {
+			return t; // dict entries are valid inside arrays only
+		}
+		if (new Parser(signature).completeType()) {
+			return intern(signature);
+		}
+		return new TypeDescriptor(signature, false);
+	}
+
+	/**
+	 * @param signature
+	 *            a sequence of complete types, e.g. the body of a message
+	 * @return the descriptors of the types
+	 * @throws IllegalArgumentException
+	 *             if the signature is invalid
+	 */
+	public static List<TypeDescriptor> parse(String signature) {
+		List<TypeDescriptor> types = new ArrayList<TypeDescriptor>();
+		Parser p = new Parser(signature);
+		while (p.pos < signature.length()) {
+			int start = p.pos;
+			if (!p.type(false)) {
+				throw new IllegalArgumentException("Invalid D-Bus signature '"
+						+ signature + "' at position " + p.pos);
+			}
+			types.add(intern(signature.substring(start, p.pos)));
+		}
+		return types;
+	}
+
+	/**
+	 * Descriptor of a validated signature.
+	 */
+	private static TypeDescriptor intern(String signature) {
+		TypeDescriptor t = cache.get(signature);
+		if (t == null) {
+			TypeDescriptor created = new TypeDescriptor(signature, true);
+			t = cache.putIfAbsent(signature, created);
+			if (t == null) {
+				t = created;
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * @param valid
+	 *            false for a descriptor of an invalid signature
+	 */
+	private TypeDescriptor(String signature, boolean valid) {
+		this.signature = signature;
+		char code = valid ? signature.charAt(0) : '\0';
+		if (code == 'a') {
+			element = intern(signature.substring(1));
+			members = Collections.emptyList();
+			base = element.base;
+			dims = element.dims + 1;
+		} else if (code == '(' || code == '{') {
+			element = null;
+			List<TypeDescriptor> l = new ArrayList<TypeDescriptor>();
+			String body = signature.substring(1, signature.length() - 1);
+			Parser p = new Parser(body);
+			while (p.pos < body.length()) {
+				int start = p.pos;
+				p.type(false);
+				l.add(intern(body.substring(start, p.pos)));
+			}
+			members = Collections.unmodifiableList(l);
+			base = this;
+			dims = 0;
+		} else {
+			element = null;
+			members = Collections.emptyList();
+			base = this;
+			dims = 0;
+		}
+
+		if (BASIC_TYPES.indexOf(code) >= 0) {
+			javaType = JAVA_TYPES.get(signature);
+			jniType = JNI_TYPES.get(signature);
+			cType = C_TYPES.get(signature);
+			java2CAssignFormat = JAVA2C_ASSIGN_FORMATS.get(signature);
+			c2JavaAssignFormat = C2JAVA_ASSIGN_FORMATS.get(signature);
+			if (javaType == null) {
+				marshalling = Marshalling.UNSUPPORTED;
+			} else if (java2CAssignFormat != null) {
+				marshalling = Marshalling.STRING;
+			} else {
+				marshalling = Marshalling.DIRECT;
+			}
+		} else if (code == 'a' && BASIC_TYPES.indexOf(element.getCode()) >= 0) {
+			// array of a basic type
+			java2CAssignFormat = null;
+			c2JavaAssignFormat = null;
+			if (element.javaType == null) {
+				marshalling = Marshalling.UNSUPPORTED;
+				javaType = null;
+				jniType = null;
+				cType = null;
+			} else {
+				marshalling = Marshalling.ARRAY;
+				javaType = element.javaType + "[]";
+				if (element.marshalling == Marshalling.STRING) {
+					jniType = "jobjectArray";
+					cType = "gchar **";
+				} else {
+					jniType = element.jniType + "Array";
+					cType = element.cType + " *";
+				}
+			}
+		} else if (!valid || code == '{' || "aay".equals(signature)) {
+			// dict entries exist in arrays only, gdbus maps byte string arrays
+			// to gchar **
+			marshalling = Marshalling.UNSUPPORTED;
+			javaType = null;
+			jniType = null;
+			cType = null;
+			java2CAssignFormat = null;
+			c2JavaAssignFormat = null;
+		} else {
+			// variant, struct, dictionary or nested array
+			marshalling = Marshalling.VARIANT;
+			javaType = "String";
+			jniType = "jstring";
+			cType = "GVariant *";
+			java2CAssignFormat = null;
+			c2JavaAssignFormat = null;
+		}
+	}
+
+	public String getSignature() {
+		return signature;
+	}
+
+	/**
+	 * @return the type code, e.g. 'a' for arrays or '(' for structs
+	 */
+	public char getCode() {
+		return signature.length() > 0 ? signature.charAt(0) : '\0';
+	}
+
+	/**
+	 * @return the element type of an array, or null
+	 */
+	public TypeDescriptor getElement() {
+		return element;
+	}
+
+	/**
+	 * @return the member types of a struct or dict entry
+	 */
+	public List<TypeDescriptor> getMembers() {
+		return members;
+	}
+
+	/**
+	 * @return the type without its array dimensions, e.g. 'u' for 'aau'.
+	 */
+	public TypeDescriptor getBase() {
+		return base;
+	}
+
+	/**
+	 * @return number of array dimensions around the base type
+	 */
+	public int getDims() {
+		return dims;
+	}
+
+	public Marshalling getMarshalling() {
+		return marshalling;
+	}
+
+	public boolean isDictEntry() {
+		return getCode() == '{' && !members.isEmpty();
+	}
+
+	/**
+	 * @return Java type, or null if there is none
+	 */
+	public String getJavaType() {
+		return javaType;
+	}
+
+	/**
+	 * @return JNI type, or null if there is none
+	 */
+	public String getJniType() {
+		return jniType;
+	}
+
+	/**
+	 * @return C type used by gdbus, or null if there is none
+	 */
+	public String getCType() {
+		return cType;
+	}
+
+	/**
+	 * @return pattern converting a Java value {0} of a basic type to C,
+	 *         null for a direct assignment, "?" if unsupported.
+	 */
+	public String getJava2CAssignFormat() {
+		return java2CAssignFormat;
+	}
+
+	/**
+	 * @return pattern converting a C value {0} of a basic type to Java,
+	 *         null for a direct assignment, "?" if unsupported.
+	 */
+	public String getC2JavaAssignFormat() {
+		return c2JavaAssignFormat;
+	}
+
+	@Override
+	public String toString() {
+		return signature;
+	}
+
+	/**
+	 * Validating scanner of signatures.
+	 */
+	private static final class Parser {
+		private static final int MAX_DEPTH = 32;
+
+		private final String s;
+		int pos = 0;
+		private int arrayDepth = 0;
+		private int structDepth = 0;
+
+		Parser(String s) {
+			this.s = s;
+		}
+
+		/**
+		 * @return true if the signature is exactly one complete type.
+		 */
+		boolean completeType() {
+			return s.length() > 0 && s.length() <= 255 && s.charAt(0) != '{'
+					&& type(false) && pos == s.length();
+		}
+
+		/**
+		 * Scan one complete type.
+		 */
+		boolean type(boolean dictEntryAllowed) {
+			if (pos >= s.length()) {
+				return false;
+			}
+			char c = s.charAt(pos++);
+			if (BASIC_TYPES.indexOf(c) >= 0 || c == 'v') {
+				return true;
+			}
+			if (c == 'a') {
+				if (++arrayDepth > MAX_DEPTH) {
+					return false;
+				}
+				boolean ok = type(true);
+				arrayDepth--;
+				return ok;
+			}
+			if (c == '(') {
+				if (++structDepth > MAX_DEPTH) {
+					return false;
+				}
+				if (pos < s.length() && s.charAt(pos) == ')') {
+					return false; // empty struct
+				}
+				while (pos < s.length() && s.charAt(pos) != ')') {
+					if (!type(false)) {
+						return false;
+					}
+				}
+				structDepth--;
+				return pos++ < s.length();
+			}
+			if (c == '{' && dictEntryAllowed) {
+				if (pos >= s.length() || BASIC_TYPES.indexOf(s.charAt(pos)) < 0) {
+					return false; // key must be a basic type
+				}
+				pos++;
+				if (!type(false)) {
+					return false;
+				}
+				return pos < s.length() && s.charAt(pos++) == '}';
+			}
+			return false;
+		}
+	}
+}
@@ -1,14 +1,20 @@
 package de.serviceflow.codegenj.test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
 
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.UnmarshalException;
 import javax.xml.stream.XMLStreamException;
 
 import org.junit.Test;
@@ -16,13 +22,14 @@ import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
 import de.serviceflow.codegenj.CodegenJ;
+import de.serviceflow.codegenj.GenerationManifest;
 import de.serviceflow.codegenj.Node;
 
 public class TestCodegenJ {
 
 	@Test
-	public final void testMain() throws FileNotFoundException, JAXBException,
-			SAXException, XMLStreamException {
+	public final void testMain() throws FileNotFoundException, SAXException,
+			XMLStreamException {
 		System.out.println("*** Testing CodegenJ");
 
 		String[] args = {
@@ -52,9 +59,95 @@ public class TestCodegenJ {
 		assertNotNull(node);
 		System.out.println("- parseXML() OK");
 
-		testSubject.generateCode(node, null);
+		testSubject.generateCode(node);
 		System.out.println("*** test successful ***");
 		*/
 	}
 
+	@Test
+	public final void testStreamMatchesTree() throws FileNotFoundException,
+			SAXException, XMLStreamException, IOException {
+		System.out.println("*** Testing CodegenJ stream mode");
+		String base = new File(".").getAbsolutePath();
+		for (String xml : new String[] { "dum_my.xml", "collector_my.xml" }) {
+			String tree = base + "/target/tree/" + xml;
+			String stream = base + "/target/stream/" + xml;
+			String[] args = { "-f", "-l", "dummydbus", "-b", "my.dum", "-i",
+					"my.dum.", base + "/src/test/resources/" + xml };
+			new CodegenJ().run(with(args, "-d", tree));
+			new CodegenJ().run(with(args, "-stream", "-d", stream));
+
+			Map<String, File> treeFiles = listFiles(new File(tree), "",
+					new TreeMap<String, File>());
+			Map<String, File> streamFiles = listFiles(new File(stream), "",
+					new TreeMap<String, File>());
+			assertEquals(xml, treeFiles.keySet(), streamFiles.keySet());
+			for (String name : treeFiles.keySet()) {
+				assertArrayEquals(xml + ": " + name,
+						Files.readAllBytes(treeFiles.get(name).toPath()),
+						Files.readAllBytes(streamFiles.get(name).toPath()));
+			}
+		}
+	}
+
+	@Test
+	public final void testFirstDefinitionGenerated() throws IOException,
+			SAXException, XMLStreamException {
+		String base = new File(".").getAbsolutePath();
+		String dir = base + "/target/duplicate";
+		new CodegenJ().run(new String[] { "-f", "-p", "-d", dir, "-l",
+				"dummydbus", "-b", "my.dum", "-i", "my.dum.",
+				base + "/src/test/resources/duplicate_my.xml" });
+		String java = new String(Files.readAllBytes(new File(dir
+				+ "/generated/my/dum/Dev.java").toPath()), "UTF-8");
+		assertTrue(java.contains("first()"));
+		assertFalse(java.contains("second()"));
+	}
+
+	/**
+	 * Stream mode can't link to an interface of another node, tree mode can.
+	 */
+	@Test
+	public final void testStreamCrossNodeLink() throws FileNotFoundException,
+			SAXException, XMLStreamException {
+		String base = new File(".").getAbsolutePath();
+		String[] args = { "-f", "-l", "dummydbus", "-b", "my.dum", "-i",
+				"my.dum.", base + "/src/test/resources/crossnode_my.xml" };
+		String tree = base + "/target/tree/crossnode";
+		new CodegenJ().run(with(args, "-d", tree));
+		assertTrue(new File(tree + "/generated/my/dum/Owner1Proxy.java")
+				.isFile());
+		assertTrue(new File(tree + "/generated/my/dum/Item1Proxy.java")
+				.isFile());
+		Error error = null;
+		try {
+			new CodegenJ().run(with(args, "-stream", "-d", base
+					+ "/target/stream/crossnode"));
+		} catch (Error e) {
+			error = e;
+		}
+		assertNotNull("cross-node collector link accepted in stream mode",
+				error);
+		assertTrue(error.getMessage().contains("unkown target interface"));
+	}
+
+	static String[] with(String[] args, String... options) {
+		String[] all = new String[options.length + args.length];
+		System.arraycopy(options, 0, all, 0, options.length);
+		System.arraycopy(args, 0, all, options.length, args.length);
+		return all;
+	}
+
+	static Map<String, File> listFiles(File dir, String prefix,
+			Map<String, File> files) {
+		for (File f : dir.listFiles()) {
+			if (f.isDirectory()) {
+				listFiles(f, prefix + f.getName() + "/", files);
+			} else if (!GenerationManifest.FILE_NAME.equals(f.getName())) {
+				files.put(prefix + f.getName(), f);
+			}
+		}
+		return files;
+	}
+
 }
@@ -0,0 +1,209 @@
+package de.serviceflow.codegenj.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import de.serviceflow.codegenj.CodegenJ;
+import de.serviceflow.codegenj.GenerationManifest;
+import de.serviceflow.codegenj.Node;
+import de.serviceflow.codegenj.ProcessingObjective;
+import de.serviceflow.codegenj.Trace;
+
+public class TestIncrementalGeneration {
+	private static final long OLD = 1000000000000L;
+
+	private static final String BASE = new File(".").getAbsolutePath();
+
+	private static final String INPUT = BASE
+			+ "/src/test/resources/incremental_my.xml";
+
+	@Test
+	public final void testNoopRerun() throws IOException {
+		System.out.println("*** Testing incremental generation");
+		String dir = BASE + "/target/incremental/noop";
+		String xml = copy(INPUT, dir);
+		generate(dir, xml);
+		Map<String, File> files = TestCodegenJ.listFiles(new File(dir
+				+ "/out"), "", new TreeMap<String, File>());
+		Map<String, byte[]> contents = new TreeMap<String, byte[]>();
+		for (Map.Entry<String, File> e : files.entrySet()) {
+			e.getValue().setLastModified(OLD);
+			contents.put(e.getKey(), Files.readAllBytes(e.getValue().toPath()));
+		}
+
+		Rendered rendered = generate(dir, xml);
+		assertTrue(rendered.templates.isEmpty());
+		for (Map.Entry<String, File> e : files.entrySet()) {
+			assertEquals(e.getKey(), OLD, e.getValue().lastModified());
+			assertArrayEquals(e.getKey(), contents.get(e.getKey()),
+					Files.readAllBytes(e.getValue().toPath()));
+		}
+	}
+
+	@Test
+	public final void testChangedInterface() throws IOException {
+		String dir = BASE + "/target/incremental/interface";
+		String xml = copy(INPUT, dir);
+		generate(dir, xml);
+
+		replace(xml, "<method name=\"Bar\" />", "<method name=\"Baz\" />");
+		Rendered rendered = generate(dir, xml);
+		assertEquals(Collections.singleton("my.dum.Other1"),
+				rendered.interfaces);
+		assertFalse(rendered.objectManager());
+	}
+
+	@Test
+	public final void testChangedCollectorLink() throws IOException {
+		String dir = BASE + "/target/incremental/collector";
+		String xml = copy(INPUT, dir);
+		generate(dir, xml);
+
+		// the owner of the link is generated from the changed link
+		replace(xml, "my.dum.Owner1#*getItems", "my.dum.Owner1#getItems");
+		Rendered rendered = generate(dir, xml);
+		assertEquals(new HashSet<String>(Arrays.asList("my.dum.Owner1",
+				"my.dum.Item1")), rendered.interfaces);
+		assertFalse(rendered.objectManager());
+
+		replace(xml, "ObjectManager#getItems", "ObjectManager#getThings");
+		rendered = generate(dir, xml);
+		assertEquals(Collections.singleton("my.dum.Item1"),
+				rendered.interfaces);
+		assertTrue(rendered.objectManager());
+	}
+
+	@Test
+	public final void testOtherGeneratorVersion() throws IOException {
+		String dir = BASE + "/target/incremental/version";
+		String xml = copy(INPUT, dir);
+		generate(dir, xml);
+
+		File manifest = new File(dir + "/out", GenerationManifest.FILE_NAME);
+		String text = new String(Files.readAllBytes(manifest.toPath()), "UTF-8");
+		Files.write(manifest.toPath(), text.replaceFirst("^codegenj-manifest \\d+",
+				"codegenj-manifest 0").getBytes("UTF-8"));
+		Rendered rendered = generate(dir, xml);
+		assertEquals(new HashSet<String>(Arrays.asList("my.dum.Owner1",
+				"my.dum.Item1", "my.dum.Other1")), rendered.interfaces);
+		assertTrue(rendered.objectManager());
+	}
+
+	@Test
+	public final void testParallelMatchesSequential() throws IOException {
+		for (String xml : new String[] { INPUT,
+				BASE + "/src/test/resources/dum_my.xml" }) {
+			String name = new File(xml).getName();
+			String sequential = BASE + "/target/incremental/sequential/" + name;
+			String parallel = BASE + "/target/incremental/parallel/" + name;
+			String[] args = { "-f", "-l", "dummydbus", "-b", "my.dum", "-i",
+					"my.dum.", xml };
+			new CodegenJ().run(TestCodegenJ.with(args, "-d", sequential));
+			new CodegenJ().run(TestCodegenJ.with(args, "-p", "-d", parallel));
+
+			Map<String, File> files = TestCodegenJ.listFiles(new File(
+					sequential), "", new TreeMap<String, File>());
+			Map<String, File> others = TestCodegenJ.listFiles(new File(
+					parallel), "", new TreeMap<String, File>());
+			assertEquals(name, files.keySet(), others.keySet());
+			for (String f : files.keySet()) {
+				assertArrayEquals(name + ": " + f,
+						Files.readAllBytes(files.get(f).toPath()),
+						Files.readAllBytes(others.get(f).toPath()));
+			}
+		}
+	}
+
+	/**
+	 * Copy the XML file into a new test directory.
+	 */
+	private static String copy(String xml, String dir) throws IOException {
+		delete(new File(dir));
+		new File(dir).mkdirs();
+		File copy = new File(dir, new File(xml).getName());
+		Files.copy(new File(xml).toPath(), copy.toPath());
+		return copy.getPath();
+	}
+
+	private static void replace(String xml, String text, String replacement)
+			throws IOException {
+		File f = new File(xml);
+		String content = new String(Files.readAllBytes(f.toPath()), "UTF-8");
+		assertTrue(text, content.contains(text));
+		Files.write(f.toPath(), content.replace(text, replacement)
+				.getBytes("UTF-8"));
+	}
+
+	private static void delete(File f) {
+		File[] files = f.listFiles();
+		if (files != null) {
+			for (File c : files) {
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+
+	/**
+	 * Generate into dir/out and trace what is rendered.
+	 */
+	private static Rendered generate(String dir, String xml) {
+		Rendered rendered = new Rendered();
+		Trace.Listener listener = Trace.getListener();
+		Trace.setListener(rendered);
+		Trace.setLevel(Trace.Level.BLOCK);
+		try {
+			new CodegenJ().run(new String[] { "-d", dir + "/out", "-l",
+					"dummydbus", "-b", "my.dum", "-i", "my.dum.", xml });
+		} finally {
+			Trace.setLevel(Trace.Level.OFF);
+			Trace.setListener(listener);
+		}
+		return rendered;
+	}
+
+	/**
+	 * Templates rendered and interfaces rendered from.
+	 */
+	private static final class Rendered implements Trace.Listener {
+		final Set<String> templates = Collections
+				.synchronizedSet(new HashSet<String>());
+		final Set<String> interfaces = Collections
+				.synchronizedSet(new HashSet<String>());
+
+		boolean objectManager() {
+			return templates.contains("template/java/ObjectManager_java.txt");
+		}
+
+		public void templateStart(String templatePath) {
+			templates.add(templatePath);
+		}
+
+		public void templateEnd(String templatePath, long nanos) {
+		}
+
+		public void block(String blockname, ProcessingObjective context,
+				String blockArg) {
+			if (context instanceof Node.Interface) {
+				interfaces.add(((Node.Interface) context).getName());
+			}
+		}
+
+		public void detail(String message) {
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package de.serviceflow.codegenj.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import de.serviceflow.codegenj.ModelReader;
+import de.serviceflow.codegenj.Node;
+import de.serviceflow.codegenj.Node.Interface;
+
+public class TestModelReader {
+
+	private static final String XML = "<?xml version=\"1.0\"?>\n"
+			+ "<!-- root -->\n"
+			+ "<node name=\"/a\">\n"
+			+ "  <interface name=\"a.I1\">\n"
+			+ "    <!-- m1 -->\n"
+			+ "    <method name=\"M1\">\n"
+			+ "      <arg name=\"x\" type=\"s\" direction=\"in\"/>\n"
+			+ "      <annotation name=\"k\" value=\"v\"/>\n"
+			+ "    </method>\n"
+			+ "    <signal name=\"S1\"><arg name=\"y\" type=\"u\"/></signal>\n"
+			+ "    <!-- p1 -->\n"
+			+ "    <property name=\"P1\" type=\"s\" access=\"read\"/>\n"
+			+ "  </interface>\n"
+			+ "  <node name=\"b\">\n"
+			+ "    <!-- i2 -->\n"
+			+ "    <interface name=\"a.I2\"/>\n"
+			+ "  </node>\n"
+			+ "</node>\n";
+
+	@Test
+	public final void testReadModel() throws XMLStreamException,
+			UnsupportedEncodingException {
+		System.out.println("*** Testing ModelReader");
+		Node node = ModelReader.read(
+				new ByteArrayInputStream(XML.getBytes("UTF-8")), "test");
+
+		assertEquals("/a", node.getName());
+		assertEquals(" root ", node.getComment());
+		Interface i1 = node.getInterfaces().get(0);
+		assertEquals("a.I1", i1.getName());
+		assertNull(i1.getComment());
+		assertEquals(" m1 ", i1.getMethods().get(0).getComment());
+		assertEquals("in", i1.getMethods().get(0).getArgs().get(0)
+				.getDirection());
+		assertEquals("v", i1.getMethods().get(0).getAnnotations().get(0)
+				.getValue());
+		assertNull(i1.getSignals().get(0).getArgs().get(0).getDirection());
+		assertEquals(" p1 ", i1.getProperties().get(0).getComment());
+
+		Node child = node.getChilds().get(0);
+		assertEquals("b", child.getName());
+		assertEquals(" i2 ", child.getInterfaces().get(0).getComment());
+	}
+
+	@Test
+	public final void testFreeze() throws XMLStreamException,
+			UnsupportedEncodingException {
+		Node node = ModelReader.read(
+				new ByteArrayInputStream(XML.getBytes("UTF-8")), "test");
+		node.freeze();
+
+		assertTrue(node.isFrozen());
+		Interface i1 = node.getInterface("a.I1");
+		assertSame(node.getInterfaces().get(0), i1);
+		assertNull(node.getInterface("a.I2"));
+		assertFalse(i1.isSkeleton());
+		assertEquals("v", i1.getMethods().get(0).getAnnotations("k").get(0)
+				.getValue());
+		assertTrue(i1.getAnnotations("k").isEmpty());
+		try {
+			node.getChilds().get(0).getInterfaces().clear();
+			fail("frozen list modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			i1.getInterfaceCollectorMap().clear();
+			fail("frozen collector links modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public final void testUnexpectedElement() throws XMLStreamException,
+			UnsupportedEncodingException {
+		ModelReader.read(new ByteArrayInputStream(
+				"<node><method name=\"M\"/></node>".getBytes("UTF-8")), "test");
+	}
+}
@@ -0,0 +1,97 @@
+package de.serviceflow.codegenj.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import de.serviceflow.codegenj.GenerationManifest;
+import de.serviceflow.codegenj.ModelReader;
+import de.serviceflow.codegenj.ModelSnapshot;
+import de.serviceflow.codegenj.Node;
+import de.serviceflow.codegenj.Node.Interface;
+
+public class TestModelSnapshot {
+
+	@Test
+	public final void testRoundTrip() throws IOException, XMLStreamException {
+		System.out.println("*** Testing ModelSnapshot");
+		InputStream in = new FileInputStream("src/test/resources/dum_my.xml");
+		Node node;
+		try {
+			node = ModelReader.read(in, "dum_my.xml");
+		} finally {
+			in.close();
+		}
+
+		File file = File.createTempFile("dum_my", ModelSnapshot.SUFFIX);
+		try {
+			ModelSnapshot.save(file, "hash", true, node);
+			Node copy = ModelSnapshot.load(file, "hash", true);
+			assertNotNull(copy);
+			assertEquals(fingerprint(node), fingerprint(copy));
+
+			assertNull(ModelSnapshot.load(file, "other", true));
+			ModelSnapshot.save(file, "hash", false, node);
+			assertNull(ModelSnapshot.load(file, "hash", true));
+			assertNotNull(ModelSnapshot.load(file, "hash", false));
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * A damaged string length must not be allocated, the snapshot is ignored.
+	 */
+	@Test
+	public final void testDamagedStringLength() throws IOException,
+			XMLStreamException {
+		InputStream in = new FileInputStream("src/test/resources/dum_my.xml");
+		Node node;
+		try {
+			node = ModelReader.read(in, "dum_my.xml");
+		} finally {
+			in.close();
+		}
+
+		File file = File.createTempFile("dum_my", ModelSnapshot.SUFFIX);
+		try {
+			ModelSnapshot.save(file, "hash", true, node);
+			assertNotNull(ModelSnapshot.load(file, "hash", true));
+			// magic, version and string code precede the length of the hash
+			for (int length : new int[] { 0x7ffffff0, -1 }) {
+				RandomAccessFile f = new RandomAccessFile(file, "rw");
+				try {
+					f.seek(12);
+					f.writeInt(length);
+				} finally {
+					f.close();
+				}
+				assertNull(ModelSnapshot.load(file, "hash", true));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static String fingerprint(Node node) {
+		GenerationManifest.Fingerprint f = new GenerationManifest.Fingerprint();
+		f.add(node.getName()).add(node.getComment());
+		for (Interface i : node.getInterfaces()) {
+			f.add(i);
+		}
+		for (Node child : node.getChilds()) {
+			f.add(fingerprint(child));
+		}
+		return f.get();
+	}
+}
@@ -0,0 +1,64 @@
+package de.serviceflow.codegenj.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.serviceflow.codegenj.TemplateParser;
+
+public class TestTemplateParser {
+
+	private static final String[] TEMPLATES = { "", "\n", "abc",
+			"abc\n", "###for method###\n  $$$x$$$\n###end###",
+			"a###b###c", "a###", "###", "######x", "a######b", "a####b",
+			"x\r\ny\rz\n\n###end" };
+
+	@Test
+	public final void testTokensMatchLineSplitting() throws IOException {
+		System.out.println("*** Testing TemplateParser");
+		for (String template : TEMPLATES) {
+			assertEquals(template, lineSplitTokens(template),
+					scannerTokens(template));
+		}
+	}
+
+	private List<String> scannerTokens(String template) {
+		char[] buffer = template.toCharArray();
+		TemplateParser t = new TemplateParser("test", buffer, buffer.length);
+		t.open();
+		List<String> tokens = new ArrayList<String>();
+		String token;
+		while ((token = t.readNext()) != TemplateParser.EOF_TOKEN) {
+			if (token.length() > 0)
+				tokens.add(token);
+		}
+		t.close();
+		return tokens;
+	}
+
+	/**
+	 * Token semantics of the former readLine() / split("###") based parser.
+	 */
+	private List<String> lineSplitTokens(String template) throws IOException {
+		BufferedReader r = new BufferedReader(new StringReader(template));
+		List<String> tokens = new ArrayList<String>();
+		String line;
+		while ((line = r.readLine()) != null) {
+			String[] parts = line.split("###");
+			for (int i = 0; i < parts.length; i++) {
+				if (i > 0)
+					tokens.add(TemplateParser.BLOCK_TOKEN);
+				if (parts[i].length() > 0)
+					tokens.add(parts[i]);
+			}
+			tokens.add(TemplateParser.EOL_TOKEN);
+		}
+		return tokens;
+	}
+}
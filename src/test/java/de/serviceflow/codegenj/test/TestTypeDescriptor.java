@@ -0,0 +1,73 @@
+package de.serviceflow.codegenj.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import de.serviceflow.codegenj.java.TypeDescriptor;
+import de.serviceflow.codegenj.java.TypeDescriptor.Marshalling;
+
+public class TestTypeDescriptor {
+
+	@Test
+	public final void testParse() {
+		System.out.println("*** Testing TypeDescriptor");
+		TypeDescriptor t = TypeDescriptor.of("a{sa{sv}}");
+		assertSame(t, TypeDescriptor.of("a{sa{sv}}"));
+		assertEquals(Marshalling.VARIANT, t.getMarshalling());
+		assertEquals("GVariant *", t.getCType());
+		TypeDescriptor entry = t.getElement();
+		assertEquals(2, entry.getMembers().size());
+		assertSame(TypeDescriptor.of("s"), entry.getMembers().get(0));
+		assertSame(TypeDescriptor.of("a{sv}"), entry.getMembers().get(1));
+
+		TypeDescriptor s = TypeDescriptor.of("(ias)");
+		assertEquals(Marshalling.VARIANT, s.getMarshalling());
+		assertSame(TypeDescriptor.of("as"), s.getMembers().get(1));
+
+		List<TypeDescriptor> body = TypeDescriptor.parse("oa{sv}(ii)");
+		assertEquals(3, body.size());
+		assertEquals("a{sv}", body.get(1).getSignature());
+	}
+
+	@Test
+	public final void testBasicAndArrays() {
+		TypeDescriptor u = TypeDescriptor.of("u");
+		assertEquals(Marshalling.DIRECT, u.getMarshalling());
+		assertEquals("int", u.getJavaType());
+		assertEquals("guint32", u.getCType());
+		assertEquals(Marshalling.STRING, TypeDescriptor.of("s")
+				.getMarshalling());
+
+		TypeDescriptor ad = TypeDescriptor.of("ad");
+		assertEquals(Marshalling.ARRAY, ad.getMarshalling());
+		assertEquals("double[]", ad.getJavaType());
+		assertEquals("jdoubleArray", ad.getJniType());
+		assertEquals(1, ad.getDims());
+
+		TypeDescriptor aao = TypeDescriptor.of("aao");
+		assertEquals(Marshalling.VARIANT, aao.getMarshalling());
+		assertSame(TypeDescriptor.of("o"), aao.getBase());
+		assertEquals(2, aao.getDims());
+	}
+
+	@Test
+	public final void testInvalid() {
+		for (String signature : new String[] { "", "?", "a", "{sv}", "a{vs}",
+				"a{s}", "()", "(i", "ii", "a{sv}}" }) {
+			TypeDescriptor t = TypeDescriptor.of(signature);
+			assertEquals(signature, Marshalling.UNSUPPORTED,
+					t.getMarshalling());
+			assertNull(signature, t.getJavaType());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public final void testParseInvalid() {
+		TypeDescriptor.parse("sa");
+	}
+}